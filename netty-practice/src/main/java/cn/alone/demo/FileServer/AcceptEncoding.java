@@ -0,0 +1,44 @@
+package cn.alone.demo.FileServer;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 解析 Accept-Encoding 请求头，例如 gzip, deflate, br;q=0.9, *;q=0
+ */
+public class AcceptEncoding {
+
+    private AcceptEncoding() {
+    }
+
+    /**
+     * 客户端是否接受某种内容编码。q=0 表示不接受，没有列出时按 * 的设置判断
+     */
+    public static boolean accepts(String header, String coding) {
+        if (header == null) {
+            return false;
+        }
+        float wildcard = 0;
+        for (String item : header.split(",")) {
+            String[] parts = item.split(";");
+            String name = parts[0].trim();
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(coding)) {
+                return q > 0;
+            }
+            if (name.equals("*")) {
+                wildcard = q;
+            }
+        }
+        return wildcard > 0;
+    }
+
+}
@@ -0,0 +1,309 @@
+package cn.alone.demo.FileServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 异步访问日志。I/O 线程只把记录放进无锁的环形缓冲区，由后台线程格式化并写入文件，文件超过大小后滚动。
+ * 缓冲区满时丢弃记录并计数，不会阻塞 I/O 线程
+ */
+public class AccessLog implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+
+    /**
+     * 缓冲区为空时写线程的休眠时间，生产者不唤醒写线程，避免在 I/O 线程上发起系统调用
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AtomicReferenceArray<Entry> buffer;
+
+    private final int mask;
+
+    /**
+     * 生产者已经占用的位置
+     */
+    private final AtomicLong producerIndex = new AtomicLong();
+
+    /**
+     * 写线程下一个要读取的位置，只有写线程修改
+     */
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final File file;
+
+    private final long maxFileSize;
+
+    private final int maxFiles;
+
+    private final Thread writerThread;
+
+    private volatile boolean running = true;
+
+    private Writer writer;
+
+    private long fileSize;
+
+    /**
+     * 只在写线程使用
+     */
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+
+    /**
+     * @param bufferSize  缓冲区能容纳的记录数，向上取 2 的幂
+     * @param maxFileSize 日志文件超过这个大小时滚动
+     * @param maxFiles    包括当前文件在内保留的文件数
+     */
+    public AccessLog(File file, int bufferSize, long maxFileSize, int maxFiles) throws IOException {
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = Math.max(1, maxFiles);
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can not create directory " + dir);
+        }
+        open();
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "file-access-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 提交一条记录，可以在任意线程调用，不会阻塞
+     *
+     * @return 缓冲区已满时返回 false，记录被丢弃
+     */
+    public boolean offer(Entry entry) {
+        while (true) {
+            long index = producerIndex.get();
+            if (index - consumerIndex.get() >= buffer.length()) {
+                dropped.increment();
+                return false;
+            }
+            if (producerIndex.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) index & mask, entry);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 缓冲区满被丢弃的记录数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 写线程取出一条记录，位置已经被占用但生产者还没有写入时也返回 null，下一轮再读
+     */
+    private Entry poll() {
+        long index = consumerIndex.get();
+        int offset = (int) index & mask;
+        Entry entry = buffer.get(offset);
+        if (entry == null) {
+            return null;
+        }
+        buffer.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+        return entry;
+    }
+
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (running) {
+            try {
+                if (!drain(line)) {
+                    writer.flush();
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("write access log {} failed : {}", file, e.toString());
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        try { // 关闭前写出剩余的记录
+            while (drain(line)) {
+                // 继续
+            }
+        } catch (IOException e) {
+            LOGGER.warn("write access log {} failed : {}", file, e.toString());
+        }
+    }
+
+    /**
+     * 写出缓冲区中的记录，一次最多写出一个缓冲区的量
+     *
+     * @return 是否写出了记录
+     */
+    private boolean drain(StringBuilder line) throws IOException {
+        int count = 0;
+        Entry entry;
+        while (count < buffer.length() && (entry = poll()) != null) {
+            line.setLength(0);
+            entry.format(line, dateFormat);
+            line.append('\n');
+            if (fileSize + line.length() > maxFileSize && fileSize > 0) {
+                roll();
+            }
+            writer.append(line);
+            fileSize += line.length(); // 日志内容基本是 ASCII，按字符数估算文件大小
+            count++;
+        }
+        return count > 0;
+    }
+
+    private void open() throws IOException {
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+                StandardCharsets.UTF_8), 64 * 1024);
+        fileSize = file.length();
+    }
+
+    /**
+     * access.log 重命名为 access.log.1，原来的 access.log.1 重命名为 access.log.2，依此类推，最旧的文件被删除
+     */
+    private void roll() throws IOException {
+        writer.close();
+        File oldest = new File(file.getPath() + '.' + (maxFiles - 1));
+        if (oldest.exists() && !oldest.delete()) {
+            LOGGER.warn("can not delete old access log {}", oldest);
+        }
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            File from = new File(file.getPath() + '.' + i);
+            if (from.exists() && !from.renameTo(new File(file.getPath() + '.' + (i + 1)))) {
+                LOGGER.warn("can not rename old access log {}", from);
+            }
+        }
+        if (maxFiles > 1 && !file.renameTo(new File(file.getPath() + ".1"))) {
+            LOGGER.warn("can not rename access log {}", file);
+        } else if (maxFiles == 1 && !file.delete()) {
+            LOGGER.warn("can not delete access log {}", file);
+        }
+        open();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        if (getDropped() > 0) {
+            LOGGER.warn("{} access log entries dropped because the buffer was full", getDropped());
+        }
+    }
+
+    /**
+     * 一次请求的访问记录，响应结束后提交，格式化在写线程进行
+     */
+    public static class Entry {
+
+        private final String remoteAddress;
+
+        private final String method;
+
+        private final String uri;
+
+        private final String protocol;
+
+        /**
+         * 请求到达的时间
+         */
+        private final long timestamp;
+
+        private final int status;
+
+        private final long bytes;
+
+        /**
+         * 从收到请求到响应头写出的时间，微秒，-1 表示响应头没有写出
+         */
+        private final long ttfbMicros;
+
+        /**
+         * 从收到请求到响应结束的时间，微秒
+         */
+        private final long durationMicros;
+
+        /**
+         * 响应是否完整写出
+         */
+        private final boolean complete;
+
+        public Entry(String remoteAddress, String method, String uri, String protocol, long timestamp, int status,
+                     long bytes, long ttfbMicros, long durationMicros, boolean complete) {
+            this.remoteAddress = remoteAddress;
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+            this.timestamp = timestamp;
+            this.status = status;
+            this.bytes = bytes;
+            this.ttfbMicros = ttfbMicros;
+            this.durationMicros = durationMicros;
+            this.complete = complete;
+        }
+
+        /**
+         * 在 Common Log Format 后面加上首字节时间、总时间（微秒）和是否完整发送，例如
+         * 127.0.0.1 - - [19/Oct/2026:14:18:16 +0800] "GET /a.txt HTTP/1.1" 200 6 125 310 -
+         * 没有完整发送时最后一列是 aborted
+         */
+        void format(StringBuilder out, SimpleDateFormat dateFormat) {
+            out.append(remoteAddress).append(" - - [").append(dateFormat.format(new Date(timestamp))).append("] \"")
+                    .append(method).append(' ');
+            appendEscaped(out, uri);
+            out.append(' ').append(protocol).append("\" ")
+                    .append(status).append(' ').append(bytes).append(' ')
+                    .append(ttfbMicros).append(' ').append(durationMicros).append(' ')
+                    .append(complete ? "-" : "aborted");
+        }
+
+        /**
+         * uri 来自客户端，转义引号和控制字符，防止伪造日志行
+         */
+        private static void appendEscaped(StringBuilder out, String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\' || c < 0x20 || c == 0x7f) {
+                    out.append("\\x").append(Character.forDigit(c >> 4 & 0xf, 16)).append(Character.forDigit(c & 0xf, 16));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 记录每个请求的状态码、发送字节数、首字节时间和总时间，更新汇总指标并写入访问日志。
+ * 放在 ChunkedWriteHandler 和 HTTP 编码器之间，看到的是分块后的内容，不需要在每一块上注册监听器。
+ * 管线化的请求按顺序响应，所以用队列把响应和请求对应起来
+ */
+public class AccessLogHandler extends ChannelDuplexHandler {
+
+    private final FileServerMetrics metrics;
+
+    /**
+     * 为空表示不写访问日志，只更新指标
+     */
+    private final AccessLog accessLog;
+
+    /**
+     * 已经收到但响应还没有写完的请求
+     */
+    private final ArrayDeque<Exchange> pending = new ArrayDeque<>();
+
+    public AccessLogHandler(FileServerMetrics metrics, AccessLog accessLog) {
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            String protocol = ctx.channel() instanceof Http2StreamChannel
+                    ? "HTTP/2.0" : request.protocolVersion().text();
+            pending.add(new Exchange(request.method().name(), request.uri(), protocol));
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        final Exchange exchange = pending.peek();
+        if (exchange == null) {
+            ctx.write(msg, promise);
+            return;
+        }
+        if (msg instanceof HttpResponse) {
+            int status = ((HttpResponse) msg).status().code();
+            if (status >= 200) { // 100 Continue 之后还有最终响应
+                exchange.status = status;
+                promise = promise.unvoid();
+                promise.addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        exchange.headerWritten(future.isSuccess());
+                    }
+                });
+            }
+        }
+        if (msg instanceof HttpContent) {
+            exchange.bytes += ((HttpContent) msg).content().readableBytes();
+        } else if (msg instanceof ByteBuf) {
+            exchange.bytes += ((ByteBuf) msg).readableBytes();
+        } else if (msg instanceof FileRegion) {
+            exchange.bytes += ((FileRegion) msg).count();
+        }
+        if (msg instanceof LastHttpContent && exchange.status > 0) {
+            pending.poll();
+            final SocketAddress remoteAddress = ctx.channel().remoteAddress();
+            promise = promise.unvoid();
+            promise.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    finish(exchange, remoteAddress, future.isSuccess());
+                }
+            });
+        }
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * 连接断开时还没有写完的响应记为中断，没有开始响应的请求不记录
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        Exchange exchange;
+        while ((exchange = pending.poll()) != null) {
+            if (exchange.status > 0) {
+                finish(exchange, ctx.channel().remoteAddress(), false);
+            }
+        }
+        super.channelInactive(ctx);
+    }
+
+    private void finish(Exchange exchange, SocketAddress remoteAddress, boolean complete) {
+        long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - exchange.startNanos);
+        metrics.transferFinished(exchange.status, exchange.bytes, exchange.ttfbMicros >= 0, complete);
+        if (accessLog != null) {
+            accessLog.offer(new AccessLog.Entry(hostAddress(remoteAddress), exchange.method, exchange.uri,
+                    exchange.protocol, exchange.timestamp, exchange.status, exchange.bytes, exchange.ttfbMicros,
+                    durationMicros, complete));
+        }
+    }
+
+    private static String hostAddress(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null) {
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+
+    /**
+     * 一次请求和它的响应
+     */
+    private class Exchange {
+
+        private final String method;
+
+        private final String uri;
+
+        private final String protocol;
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final long startNanos = System.nanoTime();
+
+        /**
+         * 最终响应的状态码，0 表示还没有开始响应
+         */
+        private int status;
+
+        /**
+         * 写入的响应体字节数
+         */
+        private long bytes;
+
+        /**
+         * -1 表示响应头还没有写出
+         */
+        private long ttfbMicros = -1;
+
+        Exchange(String method, String uri, String protocol) {
+            this.method = method;
+            this.uri = uri;
+            this.protocol = protocol;
+        }
+
+        void headerWritten(boolean success) {
+            if (success) {
+                ttfbMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+                metrics.transferStarted(status, ttfbMicros);
+            }
+        }
+    }
+
+}
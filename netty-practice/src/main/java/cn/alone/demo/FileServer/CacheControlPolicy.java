@@ -0,0 +1,72 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.util.AsciiString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 按路径前缀配置 Cache-Control，最长的前缀优先。
+ * 规则格式为 前缀=取值，多条规则用 ; 分隔，例如
+ * /static/=public, max-age=31536000, immutable;/=no-cache
+ * 取值解析时就转换成 AsciiString，每次响应不需要重新编码
+ */
+public class CacheControlPolicy {
+
+    private final List<Rule> rules;
+
+    private CacheControlPolicy(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static CacheControlPolicy parse(String spec) {
+        List<Rule> rules = new ArrayList<>();
+        if (spec != null) {
+            for (String rule : spec.split(";")) {
+                int eq = rule.indexOf('=');
+                if (eq <= 0) {
+                    if (!rule.trim().isEmpty()) {
+                        throw new IllegalArgumentException("invalid cache control rule : " + rule);
+                    }
+                    continue;
+                }
+                rules.add(new Rule(rule.substring(0, eq).trim(), rule.substring(eq + 1).trim()));
+            }
+        }
+        Collections.sort(rules, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule r1, Rule r2) {
+                return r2.prefix.length() - r1.prefix.length();
+            }
+        });
+        return new CacheControlPolicy(rules);
+    }
+
+    /**
+     * @return 路径对应的 Cache-Control 值，没有匹配的规则时返回 null
+     */
+    public AsciiString forPath(String path) {
+        for (Rule rule : rules) {
+            if (path.startsWith(rule.prefix)) {
+                return rule.value;
+            }
+        }
+        return null;
+    }
+
+    private static class Rule {
+
+        private final String prefix;
+
+        private final AsciiString value;
+
+        Rule(String prefix, String value) {
+            this.prefix = prefix;
+            this.value = new AsciiString(value);
+        }
+    }
+
+}
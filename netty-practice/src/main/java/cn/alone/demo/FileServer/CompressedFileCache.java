@@ -0,0 +1,238 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件 gzip 压缩结果的缓存，压缩结果保存在堆外内存，总字节数不超过预算，按 LRU 淘汰。
+ * 没有命中时在后台线程压缩，这次请求先返回原始内容，不让 I/O 线程等待压缩
+ */
+public class CompressedFileCache implements FileChangeWatcher.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompressedFileCache.class);
+
+    /**
+     * 压缩后不小于原始大小的这个比例时不值得压缩，只记下结果，避免重复尝试
+     */
+    private static final double MAX_RATIO = 0.9;
+
+    /**
+     * 不值得压缩的记录按这个大小计入预算
+     */
+    private static final int MARKER_SIZE = 64;
+
+    private final long maxBytes;
+
+    private final long minFileSize;
+
+    private final long maxFileSize;
+
+    private final int level;
+
+    private final Executor executor;
+
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 正在压缩的文件
+     */
+    private final Set<Path> pending = new HashSet<>();
+
+    private long usedBytes;
+
+    public CompressedFileCache(long maxBytes, long minFileSize, long maxFileSize, int level, Executor executor) {
+        this.maxBytes = maxBytes;
+        this.minFileSize = minFileSize;
+        this.maxFileSize = maxFileSize;
+        this.level = level;
+        this.executor = executor;
+    }
+
+    /**
+     * 文件的 gzip 压缩结果，调用方负责释放
+     *
+     * @return 文件大小不合适、不值得压缩或者还没压缩好时返回 null，应返回原始内容
+     */
+    public ByteBuf get(final Path path, final FileMetadata metadata) {
+        if (metadata.getLength() < minFileSize || metadata.getLength() > maxFileSize) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.matches(metadata)) {
+                return entry.content == null ? null : entry.content.retainedDuplicate();
+            }
+            if (entry != null) {
+                remove(path);
+            }
+            if (!pending.add(path)) {
+                return null;
+            }
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compress(path, metadata);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                pending.remove(path);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 只查找已经压缩好的结果，不触发后台压缩，调用方负责释放
+     *
+     * @return 没有可用的压缩结果时返回 null
+     */
+    public synchronized ByteBuf getIfPresent(Path path, FileMetadata metadata) {
+        Entry entry = entries.get(path);
+        if (entry == null || entry.content == null || !entry.matches(metadata)) {
+            return null;
+        }
+        return entry.content.retainedDuplicate();
+    }
+
+    private void compress(Path path, FileMetadata metadata) {
+        ByteBuf content = PooledByteBufAllocator.DEFAULT.directBuffer((int) (metadata.getLength() / 4 + 64));
+        try {
+            try (InputStream in = Files.newInputStream(path);
+                 OutputStream out = new GZIPOutputStream(new ByteBufOutputStream(content), 8192) {
+                     {
+                         def.setLevel(level);
+                     }
+                 }) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+            // 压缩期间文件被修改，结果可能是新旧内容的混合，丢弃
+            if (Files.size(path) != metadata.getLength()
+                    || Files.getLastModifiedTime(path).toMillis() != metadata.getLastModified()) {
+                content.release();
+                content = null;
+                return;
+            }
+            if (content.readableBytes() > metadata.getLength() * MAX_RATIO) {
+                content.release();
+                content = null;
+            }
+            synchronized (this) {
+                put(path, new Entry(content, metadata));
+                content = null;
+            }
+        } catch (IOException e) {
+            LOGGER.warn("gzip {} failed : {}", path, e.toString());
+        } finally {
+            if (content != null) {
+                content.release();
+            }
+            synchronized (this) {
+                pending.remove(path);
+            }
+        }
+    }
+
+    private void put(Path path, Entry entry) {
+        remove(path);
+        if (entry.size() > maxBytes) {
+            entry.release();
+            return;
+        }
+        while (usedBytes + entry.size() > maxBytes) {
+            remove(entries.keySet().iterator().next());
+        }
+        entries.put(path, entry);
+        usedBytes += entry.size();
+    }
+
+    private void remove(Path path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            usedBytes -= entry.size();
+            entry.release();
+        }
+    }
+
+    @Override
+    public synchronized void onChange(Path path, boolean recursive) {
+        remove(path);
+        if (recursive) {
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> e = it.next();
+                if (e.getKey().startsWith(path)) {
+                    usedBytes -= e.getValue().size();
+                    e.getValue().release();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onOverflow() {
+        for (Entry entry : entries.values()) {
+            entry.release();
+        }
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private static class Entry {
+
+        /**
+         * 为空表示不值得压缩
+         */
+        private final ByteBuf content;
+
+        private final long length;
+
+        private final long lastModified;
+
+        Entry(ByteBuf content, FileMetadata metadata) {
+            this.content = content;
+            this.length = metadata.getLength();
+            this.lastModified = metadata.getLastModified();
+        }
+
+        boolean matches(FileMetadata metadata) {
+            return length == metadata.getLength() && lastModified == metadata.getLastModified();
+        }
+
+        int size() {
+            return content == null ? MARKER_SIZE : content.readableBytes();
+        }
+
+        void release() {
+            if (content != null) {
+                content.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.util.CharsetUtil;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 一个目录中允许展示的文件，按名字排序，每一项的 HTML 和 JSON 片段在加入时就编码好，
+ * 生成页面时只需要拼接字节数组。目录内容变化时按单个文件增量更新，不需要重新扫描整个目录
+ */
+public class DirectoryListing {
+
+    private static final Pattern ALLOWED_FILE_NAME = Pattern.compile("[A-Za-z0-9][-_A-Za-z0-9\\.]*");
+
+    private final Path dir;
+
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * 按名字排序的快照，目录变化后置空，下次读取时重建
+     */
+    private Entry[] snapshot;
+
+    private final long loadedAtNanos;
+
+    /**
+     * 文件名是否允许展示，上传时也按这个规则限制文件名
+     */
+    static boolean isAllowedName(String name) {
+        return ALLOWED_FILE_NAME.matcher(name).matches();
+    }
+
+    private DirectoryListing(Path dir) {
+        this.dir = dir;
+        this.loadedAtNanos = System.nanoTime();
+    }
+
+    /**
+     * 扫描目录，逐项读取，不会一次性创建整个目录的 File 数组
+     */
+    public static DirectoryListing load(Path dir) throws IOException {
+        DirectoryListing listing = new DirectoryListing(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                Entry entry = Entry.of(child);
+                if (entry != null) {
+                    listing.entries.put(entry.name, entry);
+                }
+            }
+        }
+        return listing;
+    }
+
+    /**
+     * 目录中的一个文件新建、修改或删除后，重新判断这一项
+     */
+    public synchronized void update(Path child) {
+        Entry entry = Entry.of(child);
+        String name = child.getFileName().toString();
+        if (entry == null) {
+            if (entries.remove(name) == null) {
+                return;
+            }
+        } else {
+            Entry old = entries.put(name, entry);
+            if (old != null && old.directory == entry.directory) {
+                return; // 只是内容变了，展示的信息不变
+            }
+        }
+        snapshot = null;
+    }
+
+    /**
+     * 按名字排序的所有项，返回的数组不可修改
+     */
+    public synchronized Entry[] entries() {
+        Entry[] s = snapshot;
+        if (s == null) {
+            s = entries.values().toArray(new Entry[0]);
+            snapshot = s;
+        }
+        return s;
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    long getLoadedAtNanos() {
+        return loadedAtNanos;
+    }
+
+    /**
+     * 目录中的一项
+     */
+    public static class Entry {
+
+        private final String name;
+
+        private final boolean directory;
+
+        /**
+         * 编码好的 HTML 列表项
+         */
+        private final byte[] html;
+
+        /**
+         * 编码好的 JSON 对象
+         */
+        private final byte[] json;
+
+        private Entry(String name, boolean directory) {
+            this.name = name;
+            this.directory = directory;
+            // 名字已经过 ALLOWED_FILE_NAME 过滤，不包含需要转义的字符
+            String href = directory ? name + '/' : name;
+            this.html = ("<li>链接：<a href=\"" + href + "\">" + href + "</a></li>\r\n").getBytes(CharsetUtil.UTF_8);
+            this.json = ("{\"name\":\"" + name + "\",\"directory\":" + directory + '}').getBytes(CharsetUtil.UTF_8);
+        }
+
+        /**
+         * @return 隐藏、不可读、名字不允许展示或者已经不存在时返回 null
+         */
+        static Entry of(Path child) {
+            String name = child.getFileName().toString();
+            if (!ALLOWED_FILE_NAME.matcher(name).matches()) { // 先做不需要系统调用的判断
+                return null;
+            }
+            try {
+                if (Files.isHidden(child) || !Files.isReadable(child)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                return null;
+            }
+            return new Entry(name, Files.isDirectory(child));
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        byte[] getHtml() {
+            return html;
+        }
+
+        byte[] getJson() {
+            return json;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package cn.alone.demo.FileServer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 目录列表缓存，按 LRU 限制目录数。
+ * 监听到目录中的文件变化时增量更新对应的列表；没有监听时靠 TTL 过期后重新扫描。
+ * 扫描在锁外进行，期间发生的变化不会反映在扫描结果中，也没有已缓存的列表可以更新，
+ * 所以记录每个正在扫描的目录的变化次数，扫描期间有变化时丢弃结果重新扫描
+ */
+public class DirectoryListingCache implements FileChangeWatcher.Listener {
+
+    private final long ttlNanos;
+
+    /**
+     * 扫描期间一直有变化时最多重新扫描的次数，之后返回最后一次的结果但不缓存
+     */
+    private static final int MAX_RESCANS = 3;
+
+    private final Map<Path, DirectoryListing> listings;
+
+    /**
+     * 正在扫描的目录，和 listings 使用同一把锁
+     */
+    private final Map<Path, Scan> scans = new HashMap<>();
+
+    /**
+     * @param ttlMillis 小于等于 0 表示不过期，只依赖文件变化监听
+     */
+    public DirectoryListingCache(int maxDirs, long ttlMillis) {
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Long.MAX_VALUE;
+        this.listings = new LruMap<>(maxDirs);
+    }
+
+    /**
+     * 目录的列表，没有缓存时扫描目录，会阻塞，不能在 I/O 线程调用
+     */
+    public DirectoryListing get(Path dir) throws IOException {
+        DirectoryListing listing;
+        synchronized (listings) {
+            listing = listings.get(dir);
+        }
+        if (listing != null && System.nanoTime() - listing.getLoadedAtNanos() < ttlNanos) {
+            return listing;
+        }
+        for (int attempt = 0; ; attempt++) {
+            Scan scan;
+            long version;
+            synchronized (listings) {
+                scan = scans.get(dir);
+                if (scan == null) {
+                    scan = new Scan();
+                    scans.put(dir, scan);
+                }
+                scan.scanners++;
+                version = scan.version;
+            }
+            try {
+                listing = DirectoryListing.load(dir);
+            } catch (IOException | RuntimeException e) {
+                synchronized (listings) {
+                    endScan(dir, scan);
+                }
+                throw e;
+            }
+            synchronized (listings) {
+                endScan(dir, scan);
+                if (scan.version == version) { // 扫描期间没有变化，结果和之后的增量更新衔接得上
+                    listings.put(dir, listing);
+                    return listing;
+                }
+            }
+            if (attempt == MAX_RESCANS) {
+                return listing;
+            }
+        }
+    }
+
+    private void endScan(Path dir, Scan scan) {
+        if (--scan.scanners == 0) {
+            scans.remove(dir);
+        }
+    }
+
+    @Override
+    public void onChange(Path path, boolean recursive) {
+        DirectoryListing parent;
+        synchronized (listings) {
+            parent = listings.get(path.getParent());
+            if (recursive) { // 目录本身被新建或删除，其下的列表都不再有效
+                Iterator<Path> it = listings.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().startsWith(path)) {
+                        it.remove();
+                    }
+                }
+            }
+            for (Map.Entry<Path, Scan> entry : scans.entrySet()) {
+                if (entry.getKey().equals(path.getParent()) || recursive && entry.getKey().startsWith(path)) {
+                    entry.getValue().version++;
+                }
+            }
+        }
+        if (parent != null) {
+            parent.update(path);
+        }
+    }
+
+    @Override
+    public void onOverflow() {
+        synchronized (listings) {
+            listings.clear();
+            for (Scan scan : scans.values()) {
+                scan.version++;
+            }
+        }
+    }
+
+    private static class Scan {
+
+        /**
+         * 正在扫描这个目录的线程数
+         */
+        private int scanners;
+
+        /**
+         * 扫描期间目录的变化次数
+         */
+        private long version;
+    }
+
+}
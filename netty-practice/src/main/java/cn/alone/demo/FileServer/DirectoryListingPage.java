@@ -0,0 +1,177 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 目录列表的一页，HTML 或 JSON 格式。
+ * 内容由页头、编码好的列表项和页尾拼接而成，列表项直接包装缓存中的字节数组，不复制；
+ * 作为 {@link ChunkedInput} 时每次只生成一批列表项，超大目录也不会一次占用大量内存
+ */
+public class DirectoryListingPage implements ChunkedInput<ByteBuf> {
+
+    /**
+     * 流式发送时每个分块包含的列表项数
+     */
+    private static final int ENTRIES_PER_CHUNK = 512;
+
+    private static final byte[] COMMA = {','};
+
+    private final DirectoryListing.Entry[] entries;
+
+    private final boolean json;
+
+    private final int from;
+
+    private final int to;
+
+    private final byte[] header;
+
+    private final byte[] footer;
+
+    private final long length;
+
+    private int position;
+
+    private boolean headerSent;
+
+    private boolean footerSent;
+
+    private long progress;
+
+    /**
+     * @param title  HTML 页面标题，JSON 中的 path
+     * @param offset 第一项的下标
+     * @param limit  最多包含的项数
+     */
+    public DirectoryListingPage(DirectoryListing listing, String title, boolean json, int offset, int limit) {
+        this.entries = listing.entries();
+        this.json = json;
+        this.from = Math.min(offset, entries.length);
+        this.to = (int) Math.min((long) from + limit, entries.length);
+        this.position = from;
+        boolean hasMore = to < entries.length;
+        if (json) {
+            header = ("{\"path\":\"" + escapeJson(title) + "\",\"offset\":" + from + ",\"total\":" + entries.length
+                    + ",\"entries\":[").getBytes(CharsetUtil.UTF_8);
+            footer = ("]" + (hasMore ? ",\"next\":" + to : "") + "}\r\n").getBytes(CharsetUtil.UTF_8);
+        } else {
+            String escaped = escapeHtml(title);
+            header = ("<!DOCTYPE html>\r\n<html><head><title>" + escaped + " 目录：</title></head><body>\r\n"
+                    + "<h3>" + escaped + " 目录：</h3>\r\n<ul>"
+                    + "<li>链接：<a href=\"../\">..</a></li>\r\n").getBytes(CharsetUtil.UTF_8);
+            footer = ("</ul>" + (hasMore ? "<a href=\"?offset=" + to + "&amp;limit=" + limit + "\">下一页</a>" : "")
+                    + "</body></html>\r\n").getBytes(CharsetUtil.UTF_8);
+        }
+        long len = header.length + footer.length;
+        for (int i = from; i < to; i++) {
+            len += json ? entries[i].getJson().length + (i > from ? 1 : 0) : entries[i].getHtml().length;
+        }
+        this.length = len;
+    }
+
+    /**
+     * 页面包含的项数
+     */
+    public int size() {
+        return to - from;
+    }
+
+    /**
+     * 一次性返回整个页面，不能和 {@link #readChunk(ByteBufAllocator)} 混用
+     */
+    public ByteBuf toByteBuf() {
+        return Unpooled.wrappedBuffer(nextChunk(Integer.MAX_VALUE));
+    }
+
+    /**
+     * 下一段内容：页头、至多 maxEntries 个列表项，最后是页尾
+     */
+    private byte[][] nextChunk(int maxEntries) {
+        int end = (int) Math.min((long) position + maxEntries, to);
+        int items = end - position;
+        int commas = json ? items - (position == from && items > 0 ? 1 : 0) : 0; // JSON 数组元素之间的逗号
+        int count = items + commas + (headerSent ? 0 : 1) + (end == to ? 1 : 0);
+        byte[][] parts = new byte[count][];
+        int n = 0;
+        if (!headerSent) {
+            parts[n++] = header;
+            headerSent = true;
+        }
+        for (; position < end; position++) {
+            if (json) {
+                if (position > from) {
+                    parts[n++] = COMMA;
+                }
+                parts[n++] = entries[position].getJson();
+            } else {
+                parts[n++] = entries[position].getHtml();
+            }
+        }
+        if (end == to) {
+            parts[n] = footer;
+            footerSent = true;
+        }
+        return parts;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return footerSent;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) {
+        if (footerSent) {
+            return null;
+        }
+        ByteBuf chunk = Unpooled.wrappedBuffer(nextChunk(ENTRIES_PER_CHUNK));
+        progress += chunk.readableBytes();
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long progress() {
+        return progress;
+    }
+
+    private static String escapeHtml(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String escapeJson(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,153 @@
+package cn.alone.demo.FileServer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 用 WatchService 监听服务根目录下的文件变化，通知各个缓存失效。
+ * WatchService 只监听单层目录，这里递归注册所有子目录，新建的目录也会被注册
+ */
+public class FileChangeWatcher implements Runnable, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileChangeWatcher.class);
+
+    /**
+     * 文件变化的监听者
+     */
+    public interface Listener {
+
+        /**
+         * 路径对应的文件或目录发生了变化（新建、修改、删除）
+         *
+         * @param recursive 为 true 时是整个目录被新建或删除，目录下所有路径都应失效
+         */
+        void onChange(Path path, boolean recursive);
+
+        /**
+         * 事件丢失，无法确定哪些文件变化了，应清空所有缓存
+         */
+        void onOverflow();
+    }
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    /**
+     * 已注册的目录，用于判断被删除的路径是不是目录
+     */
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public FileChangeWatcher(Path root) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        registerAll(root);
+        if (directories.isEmpty()) {
+            watchService.close();
+            throw new IOException("can not watch " + root);
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 启动后台监听线程，应在添加完监听者后调用
+     */
+    public void start() {
+        Thread thread = new Thread(this, "file-change-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path dir = directories.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW || dir == null) {
+                        for (Listener listener : listeners) {
+                            listener.onOverflow();
+                        }
+                        continue;
+                    }
+                    Path child = dir.resolve((Path) event.context());
+                    boolean recursive = false;
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                        registerAll(child);
+                        recursive = true;
+                    } else if (event.kind() == ENTRY_DELETE) {
+                        recursive = watchedDirectories.remove(child);
+                    }
+                    for (Listener listener : listeners) {
+                        listener.onChange(child, recursive);
+                        listener.onChange(dir, false); // 目录的修改时间和内容也变了
+                    }
+                }
+                if (!key.reset()) { // 目录已被删除
+                    watchedDirectories.remove(directories.remove(key));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 关闭
+        }
+    }
+
+    /**
+     * 注册目录及其所有子目录，无法访问的目录跳过，只依赖缓存的 TTL 过期
+     */
+    private void registerAll(Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                    watchedDirectories.add(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOGGER.warn("can not watch {} : {}", file, e.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("can not watch {} : {}", root, e.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+}
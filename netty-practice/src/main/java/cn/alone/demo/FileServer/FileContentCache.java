@@ -0,0 +1,193 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 小文件内容缓存，文件内容保存在池化的堆外 ByteBuf 中，命中时返回 retainedDuplicate，
+ * 不打开文件也不拷贝内容，多个请求共享同一块内存。
+ * <p>
+ * 总字节数不超过预算，满了以后按 LRU 选出淘汰对象，再和新文件比较访问频率（{@link FrequencySketch}），
+ * 新文件更冷时不放入缓存，避免偶尔访问一次的文件把热点文件挤出去
+ */
+public class FileContentCache implements FileChangeWatcher.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileContentCache.class);
+
+    /**
+     * 访问次数达到这个值才读入缓存，只访问一次的文件直接走磁盘
+     */
+    private static final int ADMIT_FREQUENCY = 2;
+
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    private final long maxBytes;
+
+    private final int maxFileSize;
+
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long usedBytes;
+
+    public FileContentCache(long maxBytes, int maxFileSize) {
+        this.maxBytes = maxBytes;
+        this.maxFileSize = maxFileSize;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, Math.max(1024, maxBytes / 4096)));
+    }
+
+    /**
+     * 只返回已经缓存的内容，不读取文件，也不计入访问频率，调用方负责释放
+     *
+     * @return 没有缓存或者与元数据不一致时返回 null
+     */
+    public synchronized ByteBuf getIfPresent(Path path, FileMetadata metadata) {
+        Entry entry = entries.get(path);
+        return entry != null && entry.matches(metadata) ? entry.content.retainedDuplicate() : null;
+    }
+
+    /**
+     * 返回文件内容，调用方负责释放；文件太大、不够热或者读取失败时返回 null，由调用方从磁盘发送
+     *
+     * @param metadata 文件当前的元数据，缓存的内容与之不一致时重新读取
+     */
+    public ByteBuf get(Path path, FileMetadata metadata) {
+        if (metadata.getLength() > maxFileSize) {
+            return null;
+        }
+        sketch.increment(path);
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                if (entry.matches(metadata)) {
+                    return entry.content.retainedDuplicate();
+                }
+                remove(path);
+            }
+        }
+        if (sketch.frequency(path) < ADMIT_FREQUENCY) {
+            return null;
+        }
+        ByteBuf content = load(path, (int) metadata.getLength());
+        if (content == null) {
+            return null;
+        }
+        synchronized (this) {
+            Entry existing = entries.get(path);
+            if (existing != null && existing.matches(metadata)) { // 其他线程已经读入
+                content.release();
+                return existing.content.retainedDuplicate();
+            }
+            if (existing != null) {
+                remove(path);
+            }
+            if (admit(path, content.readableBytes())) {
+                entries.put(path, new Entry(content, metadata));
+                usedBytes += content.readableBytes();
+                return content.retainedDuplicate();
+            }
+        }
+        return content; // 没有放入缓存，这次仍然用内存中的内容发送
+    }
+
+    /**
+     * 为新文件腾出空间，淘汰对象比新文件更热时放弃放入
+     */
+    private boolean admit(Path path, int size) {
+        if (size > maxBytes) {
+            return false;
+        }
+        int frequency = sketch.frequency(path);
+        while (usedBytes + size > maxBytes) {
+            Map.Entry<Path, Entry> eldest = entries.entrySet().iterator().next();
+            if (sketch.frequency(eldest.getKey()) > frequency) {
+                return false;
+            }
+            remove(eldest.getKey());
+        }
+        return true;
+    }
+
+    private void remove(Path path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            usedBytes -= entry.content.readableBytes();
+            entry.content.release();
+        }
+    }
+
+    private static ByteBuf load(Path path, int length) {
+        ByteBuf content = ALLOCATOR.directBuffer(length, length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.isWritable()) {
+                if (content.writeBytes(channel, content.writerIndex(), content.writableBytes()) < 0) {
+                    throw new EOFException("file " + path + " is truncated");
+                }
+            }
+            return content;
+        } catch (IOException e) {
+            LOGGER.warn("load {} into content cache failed : {}", path, e.toString());
+            content.release();
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void onChange(Path path, boolean recursive) {
+        remove(path);
+        if (recursive) {
+            Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Entry> e = it.next();
+                if (e.getKey().startsWith(path)) {
+                    usedBytes -= e.getValue().content.readableBytes();
+                    e.getValue().content.release();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onOverflow() {
+        for (Entry entry : entries.values()) {
+            entry.content.release();
+        }
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    private static class Entry {
+
+        private final ByteBuf content;
+
+        private final long length;
+
+        private final long lastModified;
+
+        Entry(ByteBuf content, FileMetadata metadata) {
+            this.content = content;
+            this.length = metadata.getLength();
+            this.lastModified = metadata.getLastModified();
+        }
+
+        boolean matches(FileMetadata metadata) {
+            return length == metadata.getLength() && lastModified == metadata.getLastModified();
+        }
+    }
+
+}
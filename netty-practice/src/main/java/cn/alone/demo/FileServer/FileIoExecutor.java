@@ -0,0 +1,105 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 执行会阻塞的文件系统调用（stat、open、读取目录），慢磁盘或网络文件系统只拖慢这里的线程，不阻塞 I/O 线程上的其他连接。
+ * 线程数和排队长度都有上限，排满时拒绝，由调用方返回 503，而不是无限堆积请求。
+ * 统计排队等待时间和拒绝次数，用来判断线程池是否饱和
+ */
+public class FileIoExecutor implements Executor, Closeable {
+
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong maxQueued = new AtomicLong();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder waitMicros = new LongAdder();
+
+    private final AtomicLong maxWaitMicros = new AtomicLong();
+
+    public FileIoExecutor(int threads, int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new DefaultThreadFactory("file-io", true));
+    }
+
+    /**
+     * @throws RejectedExecutionException 排队的任务已满或者已经关闭
+     */
+    @Override
+    public void execute(final Runnable task) {
+        final long submitted = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long wait = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitted);
+                    waitMicros.add(wait);
+                    updateMax(maxWaitMicros, wait);
+                    task.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+        updateMax(maxQueued, executor.getQueue().size());
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 重试
+        }
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public long getMaxQueued() {
+        return maxQueued.get();
+    }
+
+    public long getCompleted() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        long completed = executor.getCompletedTaskCount();
+        return "threads=" + executor.getMaximumPoolSize()
+                + " active=" + executor.getActiveCount()
+                + " queued=" + executor.getQueue().size()
+                + " maxQueued=" + maxQueued.get()
+                + " completed=" + completed
+                + " rejected=" + rejected.sum()
+                + " avgWaitMicros=" + (completed == 0 ? 0 : waitMicros.sum() / completed)
+                + " maxWaitMicros=" + maxWaitMicros.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,79 @@
+package cn.alone.demo.FileServer;
+
+import java.io.File;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 一次 stat 的结果，文件的 ETag 也一并算好
+ */
+public class FileMetadata {
+
+    private final boolean exists;
+
+    private final boolean hidden;
+
+    private final boolean directory;
+
+    private final boolean file;
+
+    private final long length;
+
+    private final long lastModified;
+
+    /**
+     * 只有普通文件才有
+     */
+    private final FileValidator validator;
+
+    /**
+     * 加载时间，用于 TTL 过期
+     */
+    private final long loadedAtNanos;
+
+    private FileMetadata(File f) {
+        exists = f.exists();
+        hidden = f.isHidden();
+        directory = exists && f.isDirectory();
+        file = exists && !directory && f.isFile();
+        length = file ? f.length() : 0;
+        lastModified = exists ? f.lastModified() : 0;
+        validator = file ? new FileValidator(length, lastModified) : null;
+        loadedAtNanos = System.nanoTime();
+    }
+
+    public static FileMetadata load(File f) {
+        return new FileMetadata(f);
+    }
+
+    public boolean exists() {
+        return exists;
+    }
+
+    public boolean isHidden() {
+        return hidden;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public boolean isFile() {
+        return file;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public FileValidator getValidator() {
+        return validator;
+    }
+
+    long getLoadedAtNanos() {
+        return loadedAtNanos;
+    }
+}
@@ -0,0 +1,71 @@
+package cn.alone.demo.FileServer;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件元数据（是否存在、类型、大小、修改时间、ETag）缓存，避免每个请求都做多次 stat。
+ * 按 LRU 限制条目数，由 {@link FileChangeWatcher} 保证一致性，TTL 兜底（例如无法监听的目录、网络文件系统）
+ */
+public class FileMetadataCache implements FileChangeWatcher.Listener {
+
+    private final long ttlNanos;
+
+    private final Map<Path, FileMetadata> cache;
+
+    public FileMetadataCache(int maxEntries, long ttlMillis) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.cache = new LruMap<>(maxEntries);
+    }
+
+    /**
+     * 只读取缓存，不 stat，可以在 I/O 线程调用
+     *
+     * @return 没有缓存或者已经超过有效期时返回 null
+     */
+    public FileMetadata getIfPresent(Path path) {
+        FileMetadata metadata;
+        synchronized (cache) {
+            metadata = cache.get(path);
+        }
+        return metadata != null && System.nanoTime() - metadata.getLoadedAtNanos() < ttlNanos ? metadata : null;
+    }
+
+    public FileMetadata get(Path path) {
+        FileMetadata metadata = getIfPresent(path);
+        if (metadata != null) {
+            return metadata;
+        }
+        metadata = FileMetadata.load(path.toFile()); // stat 在锁外进行
+        synchronized (cache) {
+            cache.put(path, metadata);
+        }
+        return metadata;
+    }
+
+    @Override
+    public void onChange(Path path, boolean recursive) {
+        synchronized (cache) {
+            cache.remove(path);
+            if (recursive) {
+                Iterator<Path> it = cache.keySet().iterator();
+                while (it.hasNext()) {
+                    if (it.next().startsWith(path)) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onOverflow() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+package cn.alone.demo.FileServer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件服务器的汇总指标，所有连接共享，只用原子计数，可以在 I/O 线程直接更新
+ */
+public class FileServerMetrics {
+
+    private static final int MAX_STATUS = 600;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder bytesServed = new LongAdder();
+
+    /**
+     * 下标是状态码
+     */
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+
+    /**
+     * 已经开始发送但还没有结束的响应数
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * 没有完整发送的响应数，例如客户端中途断开
+     */
+    private final LongAdder aborted = new LongAdder();
+
+    /**
+     * 首字节时间，从收到请求头到响应头写出
+     */
+    private final LatencyHistogram ttfb = new LatencyHistogram();
+
+    /**
+     * 首字节时间，只统计 2xx 响应，排除错误和重定向这类不涉及文件读取的响应
+     */
+    private final LatencyHistogram successTtfb = new LatencyHistogram();
+
+    /**
+     * 响应头已经写出，开始发送响应体
+     */
+    public void transferStarted(int status, long ttfbMicros) {
+        inFlight.incrementAndGet();
+        ttfb.record(ttfbMicros);
+        if (status >= 200 && status < 300) {
+            successTtfb.record(ttfbMicros);
+        }
+    }
+
+    /**
+     * 响应结束
+     *
+     * @param started 是否调用过 {@link #transferStarted(int, long)}
+     */
+    public void transferFinished(int status, long bytes, boolean started, boolean complete) {
+        if (started) {
+            inFlight.decrementAndGet();
+        }
+        requests.increment();
+        bytesServed.add(bytes);
+        if (status > 0 && status < MAX_STATUS) {
+            statusCounts.incrementAndGet(status);
+        }
+        if (!complete) {
+            aborted.increment();
+        }
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getBytesServed() {
+        return bytesServed.sum();
+    }
+
+    public long getStatusCount(int status) {
+        return status > 0 && status < MAX_STATUS ? statusCounts.get(status) : 0;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAborted() {
+        return aborted.sum();
+    }
+
+    public LatencyHistogram getTtfb() {
+        return ttfb;
+    }
+
+    public LatencyHistogram getSuccessTtfb() {
+        return successTtfb;
+    }
+
+    /**
+     * 一行的汇总，例如 requests=10 bytes=3000000 inFlight=0 aborted=0 status={200=9, 404=1} ttfb={...}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("requests=").append(getRequests())
+                .append(" bytes=").append(getBytesServed())
+                .append(" inFlight=").append(getInFlight())
+                .append(" aborted=").append(getAborted())
+                .append(" status={");
+        boolean first = true;
+        for (int status = 0; status < MAX_STATUS; status++) {
+            long count = statusCounts.get(status);
+            if (count > 0) {
+                sb.append(first ? "" : ", ").append(status).append('=').append(count);
+                first = false;
+            }
+        }
+        return sb.append("} ttfb={").append(ttfb).append("} ttfb2xx={").append(successTtfb).append('}').toString();
+    }
+
+    /**
+     * 以 2 的幂为边界的延迟直方图，单位微秒。第 i 个桶统计 [2^(i-1), 2^i) 微秒，记录只需一次原子加，
+     * 分位数精确到所在桶的上界
+     */
+    public static class LatencyHistogram {
+
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private final LongAdder totalMicros = new LongAdder();
+
+        public void record(long micros) {
+            micros = Math.max(0, micros);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            totalMicros.add(micros);
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        public long getMeanMicros() {
+            long count = getCount();
+            return count == 0 ? 0 : totalMicros.sum() / count;
+        }
+
+        /**
+         * 分位数的上界，微秒
+         *
+         * @param quantile 0 到 1 之间
+         */
+        public long getQuantileMicros(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                count += counts[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return (1L << (BUCKETS - 1)) - 1;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " meanUs=" + getMeanMicros()
+                    + " p50Us<=" + getQuantileMicros(0.5) + " p90Us<=" + getQuantileMicros(0.9)
+                    + " p99Us<=" + getQuantileMicros(0.99);
+        }
+    }
+
+}
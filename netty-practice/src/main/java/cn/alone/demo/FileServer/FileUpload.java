@@ -0,0 +1,148 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 一次上传：请求体逐块写入目标目录下的临时文件，全部收到后原子地重命名为目标文件，
+ * 上传过程中其他请求看到的始终是旧文件或完整的新文件。
+ * 临时文件以 . 开头，不会出现在目录列表中
+ */
+public class FileUpload {
+
+    private final Path target;
+
+    private final Path temp;
+
+    private final FileChannel channel;
+
+    private final long maxSize;
+
+    private final boolean fsync;
+
+    private long written;
+
+    private FileUpload(Path target, Path temp, FileChannel channel, long maxSize, boolean fsync) {
+        this.target = target;
+        this.temp = temp;
+        this.channel = channel;
+        this.maxSize = maxSize;
+        this.fsync = fsync;
+    }
+
+    /**
+     * 在目标文件所在目录创建临时文件，同一文件系统内才能原子重命名。
+     * 不用 Files.createTempFile，它创建的文件权限是 0600，重命名后上传的文件只有服务器用户能读；
+     * 这里按 umask 的默认权限创建，替换已有文件时沿用原文件的权限
+     */
+    public static FileUpload start(Path target, long maxSize, boolean fsync) throws IOException {
+        Path temp;
+        FileChannel channel;
+        while (true) {
+            String name = ".upload-" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp";
+            temp = target.resolveSibling(name);
+            try {
+                channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // 名字冲突，换一个
+            }
+        }
+        try {
+            copyPermissions(target, temp);
+            return new FileUpload(target, temp, channel, maxSize, fsync);
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void copyPermissions(Path target, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+        if (view == null) { // 不支持 POSIX 权限的文件系统
+            return;
+        }
+        Set<PosixFilePermission> permissions;
+        try {
+            permissions = view.readAttributes().permissions();
+        } catch (NoSuchFileException e) { // 新建的文件使用默认权限
+            return;
+        }
+        Files.setPosixFilePermissions(temp, permissions);
+    }
+
+    /**
+     * 写入一段请求体，不保留 content 的引用
+     *
+     * @return 超过大小限制时返回 false，调用方应中止上传
+     */
+    public boolean write(ByteBuf content) throws IOException {
+        int length = content.readableBytes();
+        if (written + length > maxSize) {
+            return false;
+        }
+        while (content.isReadable()) {
+            written += content.readBytes(channel, written, content.readableBytes());
+        }
+        return true;
+    }
+
+    /**
+     * 写完后替换目标文件
+     *
+     * @return 目标文件之前是否不存在
+     */
+    public boolean commit() throws IOException {
+        try {
+            if (fsync) { // 先落盘再重命名，掉电后不会看到不完整的文件
+                channel.force(false);
+            }
+            channel.close();
+            boolean created = !Files.exists(target);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return created;
+        } catch (IOException e) {
+            abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 放弃上传，删除临时文件，可以重复调用
+     */
+    public void abort() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+}
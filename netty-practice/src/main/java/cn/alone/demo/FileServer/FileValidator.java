@@ -0,0 +1,139 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.AsciiString;
+
+import java.util.Date;
+
+import static io.netty.handler.codec.http.HttpHeaderNames.ETAG;
+import static io.netty.handler.codec.http.HttpHeaderNames.IF_MODIFIED_SINCE;
+import static io.netty.handler.codec.http.HttpHeaderNames.IF_NONE_MATCH;
+import static io.netty.handler.codec.http.HttpHeaderNames.IF_RANGE;
+import static io.netty.handler.codec.http.HttpHeaderNames.LAST_MODIFIED;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件的缓存校验信息：ETag 由文件大小和修改时间生成，Last-Modified 精确到秒。
+ * 随元数据一起缓存，响应头的值预先编码成 AsciiString
+ */
+public class FileValidator {
+
+    private final String etag;
+
+    /**
+     * 修改时间，已截断到秒，和 HTTP 日期的精度一致
+     */
+    private final long lastModified;
+
+    private final AsciiString etagHeader;
+
+    private final AsciiString lastModifiedHeader;
+
+    /**
+     * 最近一次 {@link #variant(String)} 的结果，同一文件的压缩版本总是同一种编码
+     */
+    private volatile FileValidator variant;
+
+    /**
+     * 为空表示原始内容
+     */
+    private final String coding;
+
+    public FileValidator(long length, long lastModified) {
+        this.lastModified = lastModified / 1000 * 1000;
+        this.etag = "\"" + Long.toHexString(lastModified) + '-' + Long.toHexString(length) + "\"";
+        this.etagHeader = new AsciiString(etag);
+        this.lastModifiedHeader = new AsciiString(DateFormatter.format(new Date(this.lastModified)));
+        this.coding = null;
+    }
+
+    /**
+     * 打包文件中的文件，ETag 由内容的 CRC32 和长度生成
+     */
+    public static FileValidator forChecksum(long crc32, long length, long lastModified) {
+        lastModified = lastModified / 1000 * 1000;
+        return new FileValidator("\"" + Long.toHexString(crc32) + '-' + Long.toHexString(length) + "\"",
+                lastModified, new AsciiString(DateFormatter.format(new Date(lastModified))), null);
+    }
+
+    private FileValidator(String etag, long lastModified, AsciiString lastModifiedHeader, String coding) {
+        this.etag = etag;
+        this.etagHeader = new AsciiString(etag);
+        this.lastModified = lastModified;
+        this.lastModifiedHeader = lastModifiedHeader;
+        this.coding = coding;
+    }
+
+    /**
+     * 同一文件经过内容编码（如实时 gzip）后的校验信息，ETag 加上编码后缀，与原始内容区分
+     */
+    public FileValidator variant(String coding) {
+        FileValidator v = variant;
+        if (v == null || !v.coding.equals(coding)) {
+            v = new FileValidator(etag.substring(0, etag.length() - 1) + '-' + coding + '"',
+                    lastModified, lastModifiedHeader, coding);
+            variant = v;
+        }
+        return v;
+    }
+
+    /**
+     * 条件请求是否命中，命中时应返回 304。
+     * 有 If-None-Match 时忽略 If-Modified-Since
+     */
+    public boolean isNotModified(HttpRequest request) {
+        String ifNoneMatch = request.headers().get(IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matches(ifNoneMatch);
+        }
+        long ifModifiedSince = request.headers().getTimeMillis(IF_MODIFIED_SINCE, -1);
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * If-Range 与当前文件不一致时，Range 失效，应返回整个文件
+     */
+    public boolean isRangeValid(HttpRequest request) {
+        String ifRange = request.headers().get(IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"")) { // If-Range 要求强比较
+            return etag.equals(ifRange);
+        }
+        Date date = DateFormatter.parseHttpDate(ifRange);
+        return date != null && date.getTime() == lastModified;
+    }
+
+    public void setHeaders(HttpHeaders headers) {
+        headers.set(ETAG, etagHeader);
+        headers.set(LAST_MODIFIED, lastModifiedHeader);
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * If-None-Match 使用弱比较，忽略 W/ 前缀
+     */
+    private boolean matches(String ifNoneMatch) {
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,81 @@
+package cn.alone.demo.FileServer;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * Count-Min Sketch，估计每个 key 最近被访问的次数，占用固定内存，不需要为没有缓存的文件保存计数。
+ * 累计记录次数达到 10 倍宽度后所有计数减半，旧的热点会逐渐冷却
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = {0x97cb3127, 0xb4b82e39, 0x9e3779b9, 0x85ebca6b};
+
+    private final int[][] table;
+
+    private final int mask;
+
+    private final int resetSize;
+
+    private int additions;
+
+    /**
+     * @param expectedKeys 预计的不同 key 数量，决定表的宽度
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1) << 1);
+        table = new int[DEPTH][width];
+        mask = width - 1;
+        resetSize = width * 10;
+    }
+
+    synchronized void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions >= resetSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 估计的访问次数，取所有行中最小的计数
+     */
+    synchronized int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, table[i][indexOf(hash, i)]);
+        }
+        return min;
+    }
+
+    private void reset() {
+        for (int[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 17;
+        h *= 0xed5ad4bb;
+        return h ^ (h >>> 11);
+    }
+
+}
@@ -2,15 +2,9 @@ package cn.alone.demo.FileServer;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
-import io.netty.channel.ChannelInitializer;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.handler.codec.http.HttpResponseEncoder;
-import io.netty.handler.stream.ChunkedWriteHandler;
 
 /**
  * Created by RojerAlone on 2017-10-06.
@@ -22,27 +16,20 @@ public class HttpFileServer {
     private static final String IP = "127.0.0.1";
 
     public void run(final int port, final String url) throws Exception {
+        final HttpFileServerContext context = new HttpFileServerContext(url, HttpFileServerConfig.fromSystemProperties());
         EventLoopGroup bossGroup = new NioEventLoopGroup();
         EventLoopGroup workerGroup = new NioEventLoopGroup();
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
-            bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class).childHandler(new ChannelInitializer<SocketChannel>() {
-
-                @Override
-                protected void initChannel(SocketChannel ch) throws Exception {
-                    ch.pipeline().addLast("http-decoder", new HttpRequestDecoder());
-                    ch.pipeline().addLast("http-aggregator", new HttpObjectAggregator(65536));
-                    ch.pipeline().addLast("http-encoder", new HttpResponseEncoder());
-                    ch.pipeline().addLast("http-chunked", new ChunkedWriteHandler());
-                    ch.pipeline().addLast("http-fileServerHandler", new HttpFileServerHandler(url));
-                }
-            });
+            bootstrap.group(bossGroup, workerGroup).channel(NioServerSocketChannel.class)
+                    .childHandler(new HttpFileServerInitializer(url, context));
             ChannelFuture channelFuture = bootstrap.bind(IP, port).sync();
             System.out.println("Http 文件目录服务器已经启动， 网址是 http://" + IP + ":" + port + url);
             channelFuture.channel().closeFuture().sync();
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            context.close();
         }
     }
 
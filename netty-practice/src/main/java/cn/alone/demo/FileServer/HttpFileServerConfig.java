@@ -0,0 +1,431 @@
+package cn.alone.demo.FileServer;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件服务器配置，从 fileserver. 开头的系统属性读取，例如
+ * -Dfileserver.cache.control="/static/=public, max-age=86400;/=no-cache"
+ */
+public class HttpFileServerConfig {
+
+    private static final String PREFIX = "fileserver.";
+
+    /**
+     * 按路径前缀配置的 Cache-Control
+     */
+    private final CacheControlPolicy cacheControlPolicy;
+
+    /**
+     * 文件元数据缓存的最大条目数，0 表示不缓存
+     */
+    private final int metadataCacheSize;
+
+    /**
+     * 元数据缓存的最长有效期，文件变化监听失效时兜底
+     */
+    private final int metadataCacheTtlMillis;
+
+    /**
+     * 文件内容缓存的总字节数，0 表示不缓存
+     */
+    private final long contentCacheSize;
+
+    /**
+     * 只缓存不超过这个大小的文件
+     */
+    private final int contentCacheMaxFileSize;
+
+    /**
+     * 无法 sendfile 时是否用内存映射发送大文件，代替 ChunkedFile
+     */
+    private final boolean mmapEnabled;
+
+    /**
+     * 不小于这个大小的文件才映射
+     */
+    private final long mmapMinFileSize;
+
+    /**
+     * 同时保留映射的最大文件数
+     */
+    private final int mmapMaxFiles;
+
+    /**
+     * 缓存列表的最大目录数，0 表示不缓存
+     */
+    private final int listingCacheSize;
+
+    /**
+     * 执行阻塞文件操作（stat、打开文件、扫描目录）的线程数，这些操作不在 I/O 线程进行
+     */
+    private final int ioThreads;
+
+    /**
+     * 等待文件操作线程的最大请求数，排满时返回 503
+     */
+    private final int ioQueueSize;
+
+    /**
+     * 一页超过这么多项时用 chunked 编码流式发送
+     */
+    private final int listingStreamThreshold;
+
+    /**
+     * 客户端接受时是否返回预压缩的 .br、.gz 文件
+     */
+    private final boolean precompressedEnabled;
+
+    /**
+     * 是否对可压缩的文件实时 gzip
+     */
+    private final boolean gzipEnabled;
+
+    /**
+     * 可压缩文件的扩展名，小写
+     */
+    private final Set<String> gzipExtensions;
+
+    private final long gzipMinFileSize;
+
+    private final long gzipMaxFileSize;
+
+    private final int gzipLevel;
+
+    /**
+     * 压缩结果缓存的总字节数
+     */
+    private final long gzipCacheSize;
+
+    private final int gzipThreads;
+
+    /**
+     * 是否允许 PUT、POST 上传文件
+     */
+    private final boolean uploadEnabled;
+
+    /**
+     * 单个上传文件的最大字节数
+     */
+    private final long uploadMaxSize;
+
+    /**
+     * 上传完成后是否先 fsync 再重命名
+     */
+    private final boolean uploadFsync;
+
+    /**
+     * 连接既没有读也没有写出进展超过这么多秒时关闭，0 表示不限制
+     */
+    private final int idleTimeoutSeconds;
+
+    /**
+     * 是否支持明文 HTTP/2（prior knowledge 和 Upgrade: h2c）
+     */
+    private final boolean h2cEnabled;
+
+    /**
+     * HTTP/2 连接上同时进行的最大流数
+     */
+    private final int h2MaxConcurrentStreams;
+
+    /**
+     * 所有连接合计的发送限速，字节每秒，0 表示不限制
+     */
+    private final long trafficGlobalWriteLimit;
+
+    /**
+     * 每个连接的发送限速，HTTP/2 按一个连接上所有流合计，0 表示不限制
+     */
+    private final long trafficChannelWriteLimit;
+
+    /**
+     * 每个客户端 IP 的发送限速，0 表示不限制
+     */
+    private final long trafficAddressWriteLimit;
+
+    /**
+     * 限速的统计周期
+     */
+    private final long trafficCheckIntervalMillis;
+
+    /**
+     * 按路径前缀划分的优先级，interactive 的请求不受限速，见 {@link TrafficShaping}
+     */
+    private final String trafficPriority;
+
+    /**
+     * 访问日志文件，为空表示不写访问日志
+     */
+    private final String accessLogFile;
+
+    /**
+     * 访问日志缓冲区能容纳的记录数，写线程跟不上时丢弃记录
+     */
+    private final int accessLogBufferSize;
+
+    /**
+     * 访问日志超过这个大小时滚动
+     */
+    private final long accessLogMaxFileSize;
+
+    /**
+     * 包括当前文件在内保留的访问日志文件数
+     */
+    private final int accessLogMaxFiles;
+
+    /**
+     * 每隔多少秒把汇总指标输出到日志，0 表示不输出
+     */
+    private final int metricsLogIntervalSeconds;
+
+    /**
+     * 是否监听文件目录的变化，及时让缓存失效
+     */
+    private final boolean watchEnabled;
+
+    /**
+     * {@link PackFileWriter} 生成的打包文件，为空表示不使用。包中有的文件直接从包中发送，没有的仍然读取文件目录
+     */
+    private final String packFile;
+
+    HttpFileServerConfig(Properties props) {
+        cacheControlPolicy = CacheControlPolicy.parse(get(props, "cache.control", null));
+        metadataCacheSize = getInt(props, "metadata.cache.size", 10000);
+        metadataCacheTtlMillis = getInt(props, "metadata.cache.ttl.millis", 10000);
+        contentCacheSize = getLong(props, "content.cache.size", 0);
+        contentCacheMaxFileSize = getInt(props, "content.cache.max.file.size", 64 * 1024);
+        mmapEnabled = Boolean.parseBoolean(get(props, "mmap.enabled", "false"));
+        mmapMinFileSize = getLong(props, "mmap.min.file.size", 1024 * 1024);
+        mmapMaxFiles = getInt(props, "mmap.max.files", 64);
+        listingCacheSize = getInt(props, "listing.cache.size", 256);
+        ioThreads = getInt(props, "io.threads", 8);
+        ioQueueSize = getInt(props, "io.queue.size", 1024);
+        listingStreamThreshold = getInt(props, "listing.stream.threshold", 1000);
+        precompressedEnabled = Boolean.parseBoolean(get(props, "precompressed", "true"));
+        gzipEnabled = Boolean.parseBoolean(get(props, "gzip.enabled", "false"));
+        gzipExtensions = new HashSet<>();
+        for (String ext : get(props, "gzip.extensions", "html,htm,css,js,mjs,json,xml,svg,txt,csv,md,map").split(",")) {
+            if (!ext.trim().isEmpty()) {
+                gzipExtensions.add(ext.trim().toLowerCase());
+            }
+        }
+        gzipMinFileSize = getLong(props, "gzip.min.file.size", 1024);
+        gzipMaxFileSize = getLong(props, "gzip.max.file.size", 4 * 1024 * 1024);
+        gzipLevel = getInt(props, "gzip.level", 6);
+        gzipCacheSize = getLong(props, "gzip.cache.size", 32 * 1024 * 1024);
+        gzipThreads = getInt(props, "gzip.threads", 1);
+        if (gzipLevel < 1 || gzipLevel > 9) {
+            throw new IllegalArgumentException("invalid file server config " + PREFIX + "gzip.level = " + gzipLevel);
+        }
+        uploadEnabled = Boolean.parseBoolean(get(props, "upload.enabled", "false"));
+        uploadMaxSize = getLong(props, "upload.max.size", 1024L * 1024 * 1024);
+        uploadFsync = Boolean.parseBoolean(get(props, "upload.fsync", "true"));
+        idleTimeoutSeconds = getInt(props, "idle.timeout.seconds", 60);
+        h2cEnabled = Boolean.parseBoolean(get(props, "h2c.enabled", "true"));
+        h2MaxConcurrentStreams = getInt(props, "h2.max.concurrent.streams", 128);
+        trafficGlobalWriteLimit = getLong(props, "traffic.global.write.limit", 0);
+        trafficChannelWriteLimit = getLong(props, "traffic.channel.write.limit", 0);
+        trafficAddressWriteLimit = getLong(props, "traffic.address.write.limit", 0);
+        trafficCheckIntervalMillis = getLong(props, "traffic.check.interval.millis", 1000);
+        trafficPriority = get(props, "traffic.priority", null);
+        accessLogFile = get(props, "access.log.file", "");
+        accessLogBufferSize = getInt(props, "access.log.buffer.size", 8192);
+        accessLogMaxFileSize = getLong(props, "access.log.max.file.size", 64 * 1024 * 1024);
+        accessLogMaxFiles = getInt(props, "access.log.max.files", 5);
+        metricsLogIntervalSeconds = getInt(props, "metrics.log.interval.seconds", 60);
+        watchEnabled = Boolean.parseBoolean(get(props, "watch", "true"));
+        packFile = get(props, "pack.file", "");
+    }
+
+    public static HttpFileServerConfig fromSystemProperties() {
+        return new HttpFileServerConfig(System.getProperties());
+    }
+
+    private static String get(Properties props, String key, String defaultValue) {
+        String value = props.getProperty(PREFIX + key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(props, key, defaultValue));
+    }
+
+    private static long getLong(Properties props, String key, long defaultValue) {
+        String value = get(props, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid file server config " + PREFIX + key + " = " + value, e);
+        }
+    }
+
+    public CacheControlPolicy getCacheControlPolicy() {
+        return cacheControlPolicy;
+    }
+
+    public int getMetadataCacheSize() {
+        return metadataCacheSize;
+    }
+
+    public int getMetadataCacheTtlMillis() {
+        return metadataCacheTtlMillis;
+    }
+
+    public long getContentCacheSize() {
+        return contentCacheSize;
+    }
+
+    public int getContentCacheMaxFileSize() {
+        return contentCacheMaxFileSize;
+    }
+
+    public boolean isMmapEnabled() {
+        return mmapEnabled;
+    }
+
+    public long getMmapMinFileSize() {
+        return mmapMinFileSize;
+    }
+
+    public int getMmapMaxFiles() {
+        return mmapMaxFiles;
+    }
+
+    public int getListingCacheSize() {
+        return listingCacheSize;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    public int getIoQueueSize() {
+        return ioQueueSize;
+    }
+
+    public int getListingStreamThreshold() {
+        return listingStreamThreshold;
+    }
+
+    public boolean isPrecompressedEnabled() {
+        return precompressedEnabled;
+    }
+
+    public boolean isGzipEnabled() {
+        return gzipEnabled;
+    }
+
+    /**
+     * 文件是否适合实时压缩，按扩展名判断
+     */
+    public boolean isCompressible(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 && gzipExtensions.contains(fileName.substring(dot + 1).toLowerCase());
+    }
+
+    public long getGzipMinFileSize() {
+        return gzipMinFileSize;
+    }
+
+    public long getGzipMaxFileSize() {
+        return gzipMaxFileSize;
+    }
+
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+    public long getGzipCacheSize() {
+        return gzipCacheSize;
+    }
+
+    public int getGzipThreads() {
+        return gzipThreads;
+    }
+
+    public boolean isUploadEnabled() {
+        return uploadEnabled;
+    }
+
+    public long getUploadMaxSize() {
+        return uploadMaxSize;
+    }
+
+    public boolean isUploadFsync() {
+        return uploadFsync;
+    }
+
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public boolean isH2cEnabled() {
+        return h2cEnabled;
+    }
+
+    public int getH2MaxConcurrentStreams() {
+        return h2MaxConcurrentStreams;
+    }
+
+    /**
+     * 是否配置了任意一级限速
+     */
+    public boolean isTrafficShapingEnabled() {
+        return trafficGlobalWriteLimit > 0 || trafficChannelWriteLimit > 0 || trafficAddressWriteLimit > 0;
+    }
+
+    public long getTrafficGlobalWriteLimit() {
+        return trafficGlobalWriteLimit;
+    }
+
+    public long getTrafficChannelWriteLimit() {
+        return trafficChannelWriteLimit;
+    }
+
+    public long getTrafficAddressWriteLimit() {
+        return trafficAddressWriteLimit;
+    }
+
+    public long getTrafficCheckIntervalMillis() {
+        return trafficCheckIntervalMillis;
+    }
+
+    public String getTrafficPriority() {
+        return trafficPriority;
+    }
+
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    public long getAccessLogMaxFileSize() {
+        return accessLogMaxFileSize;
+    }
+
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    public int getMetricsLogIntervalSeconds() {
+        return metricsLogIntervalSeconds;
+    }
+
+    public boolean isWatchEnabled() {
+        return watchEnabled;
+    }
+
+    public String getPackFile() {
+        return packFile;
+    }
+
+}
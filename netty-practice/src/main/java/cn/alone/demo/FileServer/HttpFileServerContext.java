@@ -0,0 +1,367 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 所有连接共享的配置和缓存，每个连接的 handler 都持有同一个实例
+ */
+public class HttpFileServerContext implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpFileServerContext.class);
+
+    private final HttpFileServerConfig config;
+
+    /**
+     * 为空表示不缓存元数据
+     */
+    private final FileMetadataCache metadataCache;
+
+    /**
+     * 为空表示不缓存文件内容
+     */
+    private final FileContentCache contentCache;
+
+    /**
+     * 为空表示不使用内存映射
+     */
+    private final MappedFileCache mappedFileCache;
+
+    /**
+     * 为空表示不缓存目录列表
+     */
+    private final DirectoryListingCache listingCache;
+
+    /**
+     * 阻塞文件操作和生成目录列表的线程池
+     */
+    private final FileIoExecutor fileIoExecutor;
+
+    /**
+     * 为空表示不实时压缩
+     */
+    private final CompressedFileCache compressedFileCache;
+
+    /**
+     * 实时压缩的线程池，为空表示不实时压缩
+     */
+    private final ExecutorService gzipExecutor;
+
+    /**
+     * 为空表示不限速
+     */
+    private final TrafficShaping trafficShaping;
+
+    private final FileServerMetrics metrics = new FileServerMetrics();
+
+    /**
+     * 为空表示不写访问日志
+     */
+    private final AccessLog accessLog;
+
+    /**
+     * 定期输出汇总指标，为空表示不输出
+     */
+    private final ScheduledExecutorService metricsExecutor;
+
+    /**
+     * 为空表示不使用打包文件
+     */
+    private final PackFile packFile;
+
+    /**
+     * 所有开启的缓存
+     */
+    private final List<FileChangeWatcher.Listener> caches = new ArrayList<>();
+
+    /**
+     * 为空表示没有开启监听
+     */
+    private final FileChangeWatcher watcher;
+
+    public HttpFileServerContext(String url, HttpFileServerConfig config) {
+        this.config = config;
+        this.watcher = config.isWatchEnabled()
+                ? createWatcher(Paths.get(System.getProperty("user.dir"), url).normalize()) : null;
+        this.metadataCache = config.getMetadataCacheSize() > 0
+                ? new FileMetadataCache(config.getMetadataCacheSize(), config.getMetadataCacheTtlMillis()) : null;
+        this.contentCache = config.getContentCacheSize() > 0
+                ? new FileContentCache(config.getContentCacheSize(), config.getContentCacheMaxFileSize()) : null;
+        this.mappedFileCache = config.isMmapEnabled()
+                ? new MappedFileCache(config.getMmapMinFileSize(), config.getMmapMaxFiles()) : null;
+        // 有文件变化监听时目录列表增量更新，不需要定期重新扫描大目录
+        this.listingCache = config.getListingCacheSize() > 0 ? new DirectoryListingCache(config.getListingCacheSize(),
+                watcher != null ? 0 : config.getMetadataCacheTtlMillis()) : null;
+        this.fileIoExecutor = new FileIoExecutor(config.getIoThreads(), config.getIoQueueSize());
+        this.gzipExecutor = config.isGzipEnabled() ? Executors.newFixedThreadPool(config.getGzipThreads(),
+                new DefaultThreadFactory("file-gzip", true)) : null;
+        this.compressedFileCache = config.isGzipEnabled() ? new CompressedFileCache(config.getGzipCacheSize(),
+                config.getGzipMinFileSize(), config.getGzipMaxFileSize(), config.getGzipLevel(), gzipExecutor) : null;
+        this.trafficShaping = config.isTrafficShapingEnabled() ? new TrafficShaping(config.getTrafficGlobalWriteLimit(),
+                config.getTrafficChannelWriteLimit(), config.getTrafficAddressWriteLimit(),
+                config.getTrafficCheckIntervalMillis(), config.getTrafficPriority()) : null;
+        this.accessLog = config.getAccessLogFile().isEmpty() ? null : createAccessLog(config);
+        this.packFile = config.getPackFile().isEmpty() ? null : openPackFile(config);
+        this.metricsExecutor = config.getMetricsLogIntervalSeconds() > 0 ? startMetricsLog(
+                config.getMetricsLogIntervalSeconds()) : null;
+        for (FileChangeWatcher.Listener cache : new FileChangeWatcher.Listener[]{
+                metadataCache, contentCache, mappedFileCache, listingCache, compressedFileCache}) {
+            if (cache != null) {
+                caches.add(cache);
+            }
+        }
+        if (watcher != null) {
+            for (FileChangeWatcher.Listener cache : caches) {
+                watcher.addListener(cache);
+            }
+            watcher.start();
+        }
+    }
+
+    private static FileChangeWatcher createWatcher(Path root) {
+        try {
+            return new FileChangeWatcher(root);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("can not watch {}, caches rely on ttl only : {}", root, e.toString());
+            return null;
+        }
+    }
+
+    private static AccessLog createAccessLog(HttpFileServerConfig config) {
+        File file = new File(config.getAccessLogFile());
+        try {
+            return new AccessLog(file, config.getAccessLogBufferSize(), config.getAccessLogMaxFileSize(),
+                    config.getAccessLogMaxFiles());
+        } catch (IOException e) {
+            LOGGER.warn("can not open access log {}, access logging disabled : {}", file, e.toString());
+            return null;
+        }
+    }
+
+    private static PackFile openPackFile(HttpFileServerConfig config) {
+        File file = new File(config.getPackFile());
+        try {
+            PackFile pack = new PackFile(file);
+            LOGGER.info("serving {} files from pack {}", pack.size(), file);
+            return pack;
+        } catch (IOException e) {
+            LOGGER.warn("can not open pack file {}, serving from file system only : {}", file, e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * 有新请求时才输出，空闲时不刷屏
+     */
+    private ScheduledExecutorService startMetricsLog(int intervalSeconds) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new DefaultThreadFactory("file-metrics", true));
+        executor.scheduleAtFixedRate(new Runnable() {
+
+            private long lastRequests = -1;
+
+            @Override
+            public void run() {
+                long requests = metrics.getRequests();
+                if (requests != lastRequests || metrics.getInFlight() > 0 || fileIoExecutor.getQueued() > 0) {
+                    lastRequests = requests;
+                    LOGGER.info("file server metrics : {}, file io : {}", metrics, fileIoExecutor);
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        return executor;
+    }
+
+    public HttpFileServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 文件的元数据，开启缓存时优先从缓存读取
+     */
+    public FileMetadata getMetadata(File file) {
+        if (metadataCache == null) {
+            return FileMetadata.load(file);
+        }
+        return metadataCache.get(file.toPath().normalize());
+    }
+
+    /**
+     * 缓存中仍然有效的元数据，不访问文件系统
+     *
+     * @return 没有开启缓存或者缓存中没有时返回 null
+     */
+    public FileMetadata getCachedMetadata(File file) {
+        return metadataCache == null ? null : metadataCache.getIfPresent(file.toPath().normalize());
+    }
+
+    /**
+     * 已经缓存的文件内容，不读取文件，调用方负责释放
+     *
+     * @return 没有开启缓存或者缓存中没有时返回 null
+     */
+    public ByteBuf getCachedContent(File file, FileMetadata metadata) {
+        return contentCache == null ? null : contentCache.getIfPresent(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 已经建立的内存映射，不打开文件，调用方在发送完成后释放
+     *
+     * @return 没有开启内存映射或者还没有映射时返回 null
+     */
+    public MappedFileCache.MappedFile getCachedMappedFile(File file, FileMetadata metadata) {
+        return mappedFileCache == null ? null : mappedFileCache.getIfPresent(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 缓存中的文件内容，调用方负责释放
+     *
+     * @return 没有开启缓存或者文件不适合缓存时返回 null
+     */
+    public ByteBuf getContent(File file, FileMetadata metadata) {
+        if (contentCache == null) {
+            return null;
+        }
+        return contentCache.get(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 文件的内存映射，调用方在发送完成后释放
+     *
+     * @return 没有开启内存映射或者文件不适合映射时返回 null
+     */
+    public MappedFileCache.MappedFile getMappedFile(File file, FileMetadata metadata) {
+        if (mappedFileCache == null) {
+            return null;
+        }
+        return mappedFileCache.get(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 文件的 gzip 压缩结果，调用方负责释放
+     *
+     * @return 没有开启实时压缩、不值得压缩或者还在后台压缩时返回 null
+     */
+    public ByteBuf getGzipped(File file, FileMetadata metadata) {
+        if (compressedFileCache == null) {
+            return null;
+        }
+        return compressedFileCache.get(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 已经压缩好的 gzip 结果，不读取文件，也不触发后台压缩，调用方负责释放
+     *
+     * @return 没有开启实时压缩或者还没有压缩结果时返回 null
+     */
+    public ByteBuf getCachedGzipped(File file, FileMetadata metadata) {
+        if (compressedFileCache == null) {
+            return null;
+        }
+        return compressedFileCache.getIfPresent(file.toPath().normalize(), metadata);
+    }
+
+    /**
+     * 目录的列表，会阻塞，只能在 {@link #getFileIoExecutor()} 中调用
+     */
+    public DirectoryListing getListing(File dir) throws IOException {
+        Path path = dir.toPath().normalize();
+        if (listingCache == null) {
+            return DirectoryListing.load(path);
+        }
+        return listingCache.get(path);
+    }
+
+    /**
+     * 会阻塞的文件操作都在这里执行，完成后回到连接的 I/O 线程
+     */
+    public FileIoExecutor getFileIoExecutor() {
+        return fileIoExecutor;
+    }
+
+    /**
+     * @return 为空表示不限速
+     */
+    public TrafficShaping getTrafficShaping() {
+        return trafficShaping;
+    }
+
+    /**
+     * 打包文件不会变化，替换后需要重启服务器
+     *
+     * @return 为空表示不使用打包文件
+     */
+    public PackFile getPackFile() {
+        return packFile;
+    }
+
+    public FileServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 为空表示不写访问日志
+     */
+    public AccessLog getAccessLog() {
+        return accessLog;
+    }
+
+    /**
+     * 服务器自己修改了文件（例如上传），立即让缓存失效，不等待文件变化监听
+     */
+    public void invalidate(File file) {
+        Path path = file.toPath().normalize();
+        for (FileChangeWatcher.Listener cache : caches) {
+            cache.onChange(path, false);
+            cache.onChange(path.getParent(), false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
+        fileIoExecutor.close();
+        if (gzipExecutor != null) {
+            gzipExecutor.shutdown();
+        }
+        if (trafficShaping != null) {
+            trafficShaping.close();
+        }
+        if (metricsExecutor != null) {
+            metricsExecutor.shutdown();
+        }
+        if (accessLog != null) {
+            accessLog.close();
+        }
+        if (packFile != null) {
+            packFile.close();
+        }
+        if (compressedFileCache != null) {
+            compressedFileCache.onOverflow();
+        }
+        if (contentCache != null) {
+            contentCache.onOverflow(); // 释放所有堆外内存
+        }
+        if (mappedFileCache != null) {
+            mappedFileCache.onOverflow();
+        }
+    }
+
+}
@@ -4,21 +4,43 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.stream.ChunkedFile;
+import io.netty.util.AsciiString;
 import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 
-import javax.activation.MimetypesFileTypeMap;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.regex.Pattern;
 
-import static com.sun.deploy.net.HttpRequest.CONTENT_TYPE;
-import static io.netty.handler.codec.http.HttpHeaders.Names.CONNECTION;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.ACCEPT_RANGES;
+import static io.netty.handler.codec.http.HttpHeaderNames.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_RANGE;
+import static io.netty.handler.codec.http.HttpHeaderNames.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaderNames.RANGE;
+import static io.netty.handler.codec.http.HttpHeaderNames.VARY;
 import static io.netty.handler.codec.http.HttpHeaders.Names.LOCATION;
+import static io.netty.handler.codec.http.HttpHeaderNames.ALLOW;
 import static io.netty.handler.codec.http.HttpMethod.GET;
+import static io.netty.handler.codec.http.HttpMethod.HEAD;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static io.netty.handler.codec.http.HttpMethod.PUT;
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
 import static io.netty.handler.codec.http.HttpUtil.isKeepAlive;
 import static io.netty.handler.codec.http.HttpUtil.setContentLength;
@@ -27,96 +49,728 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 /**
  * Created by RojerAlone on 2017-10-06.
  */
-public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+public class HttpFileServerHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+    /**
+     * 预压缩文件的编码和扩展名，按优先级排列
+     */
+    private static final String[] SIDECAR_CODINGS = {"br", "gzip"};
+
+    private static final AsciiString[] SIDECAR_CODING_VALUES = {AsciiString.cached("br"), HttpHeaderValues.GZIP};
+
+    private static final String[] SIDECAR_SUFFIXES = {".br", ".gz"};
+
+    private static final AsciiString ALLOW_READ_ONLY = AsciiString.cached("GET, HEAD");
+
+    private static final AsciiString ALLOW_WITH_UPLOAD = AsciiString.cached("GET, HEAD, PUT, POST");
+
+    private static final AsciiString TEXT_PLAIN_UTF_8 = AsciiString.cached("text/plain; charset=UTF-8");
+
+    private static final AsciiString HTML_UTF_8 = AsciiString.cached("text/html; charset=UTF-8");
+
+    private static final AsciiString JSON_UTF_8 = AsciiString.cached("application/json; charset=UTF-8");
 
     private final String url;
 
-    public HttpFileServerHandler(String url) {
+    private final HttpFileServerContext context;
+
+    /**
+     * 正在进行的上传，为空表示当前请求不是上传，请求体直接丢弃
+     */
+    private FileUpload upload;
+
+    /**
+     * 当前请求处理完后是否保持连接
+     */
+    private boolean keepAlive;
+
+    /**
+     * 当前请求是否是 HEAD，响应只有头部，Content-Length 与 GET 一致
+     */
+    private boolean head;
+
+    /**
+     * 为 true 时正在其他线程生成响应，之后到达的消息先暂存，保证管线化请求的响应顺序
+     */
+    private boolean responding;
+
+    /**
+     * 异步生成响应期间到达的消息，已 retain
+     */
+    private final ArrayDeque<HttpObject> queued = new ArrayDeque<>();
+
+    public HttpFileServerHandler(String url, HttpFileServerContext context) {
         this.url = url;
+        this.context = context;
     }
 
+    /**
+     * 不聚合请求，请求头和请求体分块到达，内存占用只取决于 HttpRequestDecoder 的分块大小
+     */
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
-        if (!request.getDecoderResult().isSuccess()) { // 如果解码失败，发送错误码并返回
-            sendError(ctx, BAD_REQUEST);
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (responding) {
+            queued.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        process(ctx, msg);
+    }
+
+    private void process(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            handleRequest(ctx, (HttpRequest) msg);
+            if (responding && msg instanceof LastHttpContent) {
+                // 请求头和请求体在同一个消息中（HTTP/2 没有数据帧的请求），请求头还在异步处理，请求体排在暂存消息的最前面
+                queued.addFirst(new DefaultLastHttpContent(((LastHttpContent) msg).content().retain()));
+                return;
+            }
+        }
+        if (msg instanceof HttpContent && upload != null) {
+            receiveUpload(ctx, (HttpContent) msg);
+        }
+    }
+
+    /**
+     * 切换到其他线程生成响应，暂停读取并暂存之后的消息
+     */
+    private void suspend(ChannelHandlerContext ctx) {
+        responding = true;
+        ctx.channel().config().setAutoRead(false);
+    }
+
+    /**
+     * 异步响应已经写出，按顺序处理暂存的消息，在 I/O 线程调用
+     */
+    private void resume(ChannelHandlerContext ctx) {
+        responding = false;
+        while (!responding && !queued.isEmpty()) {
+            HttpObject msg = queued.poll();
+            try {
+                process(ctx, msg);
+            } catch (Exception e) {
+                ctx.fireExceptionCaught(e);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+        if (!responding) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private void handleRequest(ChannelHandlerContext ctx, HttpRequest request) throws Exception {
+        head = request.getMethod() == HEAD;
+        if (!request.getDecoderResult().isSuccess()) { // 如果解码失败，发送错误码并关闭连接
+            sendError(ctx, BAD_REQUEST, false);
             return;
         }
-        if (request.getMethod() != GET) { // 拒绝接受除了 GET 方法以外的方法
-            sendError(ctx, METHOD_NOT_ALLOWED);
+        keepAlive = isKeepAlive(request);
+        HttpMethod method = request.getMethod();
+        boolean uploadEnabled = context.getConfig().isUploadEnabled();
+        boolean isUpload = (method == PUT || method == POST) && uploadEnabled;
+        if (method != GET && !head && !isUpload) { // 拒绝接受除了 GET、HEAD 和上传以外的方法
+            FullHttpResponse response = errorResponse(METHOD_NOT_ALLOWED);
+            response.headers().set(ALLOW, uploadEnabled ? ALLOW_WITH_UPLOAD : ALLOW_READ_ONLY);
+            sendResponse(ctx, response, keepAlive);
             return;
         }
         final String uri = request.getUri();
-        final String path = sanitizeUri(uri);
+        QueryStringDecoder decoder = new QueryStringDecoder(uri);
+        final String path = sanitizeUri(decoder.rawPath());
         if (path == null) {
             sendError(ctx, FORBIDDEN);
             return;
         }
         File file = new File(path);
-        if (file.isHidden() || !file.exists()) { // 如果请求的文件或者文件夹时隐藏的或者不存在，返回 404
-            sendError(ctx, NOT_FOUND);
+        if (isUpload) {
+            startUpload(ctx, request, file);
             return;
         }
-        if (file.isDirectory()) { // 如果是文件夹，返回文件夹内的文件目录
-            if (uri.endsWith("/")) {
-                sendListing(ctx, file);
+        PackFile pack = context.getPackFile();
+        if (pack != null) { // 包中有的文件不访问文件系统，没有的仍然从文件目录读取
+            String packPath = packPath(path);
+            PackFile.Entry entry = packPath != null ? pack.get(packPath) : null;
+            if (entry != null) {
+                sendPacked(ctx, request, decoder, pack, packPath, entry);
+                return;
+            }
+        }
+        // 缓存能命中时直接在 I/O 线程响应，需要访问文件系统时交给文件操作线程池
+        if (!serveFile(ctx, request, decoder, path, false)) {
+            serveFileAsync(ctx, request, decoder, path);
+        }
+    }
+
+    /**
+     * 在文件操作线程池中重新处理请求，完成后回到 I/O 线程继续处理暂存的消息
+     */
+    private void serveFileAsync(final ChannelHandlerContext ctx, final HttpRequest request,
+                                final QueryStringDecoder decoder, final String path) {
+        suspend(ctx);
+        try {
+            context.getFileIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable failure = null;
+                    try {
+                        serveFile(ctx, request, decoder, path, true);
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    final Throwable cause = failure;
+                    // 写操作已经提交到 I/O 线程，resume 排在它们之后执行
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (cause != null) {
+                                try {
+                                    exceptionCaught(ctx, cause);
+                                } catch (Exception e) {
+                                    ctx.fireExceptionCaught(e);
+                                }
+                            }
+                            resume(ctx);
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sendError(ctx, SERVICE_UNAVAILABLE, keepAlive);
+            resume(ctx);
+        }
+    }
+
+    /**
+     * 文件和目录的响应。blocking 为 false 时在 I/O 线程调用，只使用缓存，
+     * 遇到需要访问文件系统的操作时在写出任何内容之前返回 false，由调用方交给文件操作线程池重新处理
+     *
+     * @return 是否已经处理
+     */
+    private boolean serveFile(ChannelHandlerContext ctx, HttpRequest request, QueryStringDecoder decoder,
+                              String path, boolean blocking) throws Exception {
+        File file = new File(path);
+        FileMetadata metadata = metadata(file, blocking);
+        if (metadata == null) {
+            return false;
+        }
+        if (metadata.isHidden() || !metadata.exists()) { // 如果请求的文件或者文件夹时隐藏的或者不存在，返回 404
+            sendError(ctx, NOT_FOUND);
+            return true;
+        }
+        if (metadata.isDirectory()) { // 如果是文件夹，返回文件夹内的文件目录
+            if (decoder.rawPath().endsWith("/")) {
+                if (!blocking) {
+                    return false; // 扫描目录也在文件操作线程池中进行
+                }
+                sendListing(ctx, request, file, decoder);
             } else {
-                sendRedirect(ctx, uri + '/');
+                String query = decoder.rawQuery();
+                sendRedirect(ctx, decoder.rawPath() + '/' + (query.isEmpty() ? "" : '?' + query), keepAlive);
             }
-            return;
+            return true;
         }
-        if (!file.isFile()) {
+        if (!metadata.isFile()) {
             sendError(ctx, FORBIDDEN);
-            return;
+            return true;
         }
         // 不是文件夹，返回文件
+        HttpFileServerConfig config = context.getConfig();
+        AsciiString contentType = MimeTypes.contentType(file.getName());
+        AsciiString cacheControl = config.getCacheControlPolicy().forPath(decoder.path());
+        boolean compressible = config.isGzipEnabled() && config.isCompressible(file.getName());
+        boolean vary = config.isPrecompressedEnabled() || compressible;
+        // 选择内容编码：预压缩文件优先，其次是缓存的 gzip 结果；Range 请求总是针对原始内容
+        AsciiString contentEncoding = null;
+        ByteBuf encoded = null;
+        FileValidator validator = metadata.getValidator();
+        String acceptEncoding = request.headers().get(ACCEPT_ENCODING);
+        if (acceptEncoding != null && !request.headers().contains(RANGE)) {
+            if (config.isPrecompressedEnabled()) {
+                for (int i = 0; i < SIDECAR_CODINGS.length; i++) {
+                    if (!AcceptEncoding.accepts(acceptEncoding, SIDECAR_CODINGS[i])) {
+                        continue;
+                    }
+                    File sidecar = new File(path + SIDECAR_SUFFIXES[i]);
+                    FileMetadata sidecarMetadata = metadata(sidecar, blocking);
+                    if (sidecarMetadata == null) {
+                        return false;
+                    }
+                    // 比原始文件旧的预压缩文件可能已经过期
+                    if (sidecarMetadata.isFile() && sidecarMetadata.getLastModified() >= metadata.getLastModified()) {
+                        file = sidecar;
+                        metadata = sidecarMetadata;
+                        validator = sidecarMetadata.getValidator();
+                        contentEncoding = SIDECAR_CODING_VALUES[i];
+                        break;
+                    }
+                }
+            }
+            if (contentEncoding == null && compressible && AcceptEncoding.accepts(acceptEncoding, "gzip")) {
+                // HEAD 只使用已有的压缩结果，不为它读取文件压缩；没有时按原始内容响应
+                encoded = head ? context.getCachedGzipped(file, metadata) : context.getGzipped(file, metadata);
+                if (encoded != null) {
+                    validator = validator.variant("gzip");
+                    contentEncoding = HttpHeaderValues.GZIP;
+                }
+            }
+        }
+        if (validator.isNotModified(request)) { // 客户端缓存仍然有效，不需要打开文件
+            if (encoded != null) {
+                encoded.release();
+            }
+            sendNotModified(ctx, validator, cacheControl, vary, keepAlive);
+            return true;
+        }
+        // 与 ETag 对应的长度，缓存失效前文件被截断时 sendfile 会报错关闭连接
+        long fileLength = encoded != null ? encoded.readableBytes() : metadata.getLength();
+        // If-Range 不匹配说明客户端持有的是旧版本，忽略 Range 返回整个文件；HEAD 没有定义 Range，总是忽略
+        String rangeHeader = !head && validator.isRangeValid(request) ? request.headers().get(RANGE) : null;
+        List<HttpRange> ranges = HttpRange.parse(rangeHeader, fileLength);
+        if (ranges != null && ranges.isEmpty()) { // 请求的区间全部超出文件范围
+            sendRangeNotSatisfiable(ctx, fileLength, keepAlive);
+            return true;
+        }
+        if (head) { // 响应头只依赖元数据，不打开文件，也不读取缓存的内容
+            if (encoded != null) {
+                encoded.release();
+            }
+            sendHead(ctx, fileLength, contentType, contentEncoding, vary, validator, cacheControl);
+            return true;
+        }
+        // 限速的响应要让整形器按小块计量，否则整个文件作为一个 FileRegion 或映射先等待再突发发送
+        TrafficShaping shaping = context.getTrafficShaping();
+        boolean shaped = shaping != null && !shaping.isInteractive(decoder.path());
+        boolean zeroCopy = isZeroCopy(ctx, shaped);
+        // 热点小文件直接从内存发送，不需要打开文件
+        ByteBuf cached = encoded != null ? encoded : ranges == null || ranges.size() == 1
+                ? blocking ? context.getContent(file, metadata) : context.getCachedContent(file, metadata) : null;
+        // 不能 sendfile 时，频繁读取的大文件从共享的内存映射发送
+        final MappedFileCache.MappedFile mapped = cached == null && !zeroCopy && !shaped
+                && (ranges == null || ranges.size() == 1) ? blocking ? context.getMappedFile(file, metadata)
+                : context.getCachedMappedFile(file, metadata) : null;
         RandomAccessFile randomAccessFile = null;
-        try {
-            randomAccessFile = new RandomAccessFile(file, "r"); // 以只读的方式打开文件
-        } catch (FileNotFoundException fnfe) {
-            sendError(ctx, NOT_FOUND);
+        if (cached == null && mapped == null) {
+            if (!blocking) {
+                return false; // 打开文件可能阻塞
+            }
+            // 多个区间每段单独打开文件，在 sendMultipartRanges 中进行
+            if (ranges == null || ranges.size() == 1) {
+                try {
+                    randomAccessFile = new RandomAccessFile(file, "r"); // 以只读的方式打开文件
+                } catch (FileNotFoundException fnfe) {
+                    sendError(ctx, NOT_FOUND);
+                    return true;
+                }
+            }
+        }
+        // 响应头的名字都是常量，值都是预先编码的 AsciiString 或数字，不需要逐个校验
+        HttpResponse response;
+        if (ranges == null) {
+            response = new DefaultHttpResponse(HTTP_1_1, OK, false);
+            setContentLength(response, fileLength);
+            response.headers().set(CONTENT_TYPE, contentType);
+        } else if (ranges.size() == 1) {
+            HttpRange range = ranges.get(0);
+            response = new DefaultHttpResponse(HTTP_1_1, PARTIAL_CONTENT, false);
+            setContentLength(response, range.getLength());
+            response.headers().set(CONTENT_TYPE, contentType);
+            response.headers().set(CONTENT_RANGE, range.toContentRange(fileLength));
+        } else {
+            response = new DefaultHttpResponse(HTTP_1_1, PARTIAL_CONTENT, false);
+        }
+        setRepresentationHeaders(response.headers(), contentEncoding, vary, validator, cacheControl);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        if (ranges == null || ranges.size() == 1) {
+            ctx.write(response);
+            long offset = ranges == null ? 0 : ranges.get(0).getStart();
+            long length = ranges == null ? fileLength : ranges.get(0).getLength();
+            if (cached != null) {
+                if (ranges != null) {
+                    ByteBuf slice = cached.retainedSlice((int) offset, (int) length);
+                    cached.release();
+                    cached = slice;
+                }
+                ctx.write(cached);
+            } else if (mapped != null) {
+                ctx.write(mapped.slice(offset, length)).addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        mapped.release(); // 写出完成后不再访问映射
+                    }
+                });
+            } else {
+                ctx.write(fileContent(randomAccessFile, offset, length, zeroCopy));
+            }
+        } else {
+            try {
+                sendMultipartRanges(ctx, response, file, contentType, ranges, fileLength, zeroCopy);
+            } catch (FileNotFoundException fnfe) {
+                sendError(ctx, NOT_FOUND);
+                return true;
+            }
+        }
+        // 如果使用 chunked 编码，最后需要发送一个编码结束的空消息体，写入 EMPTY_LAST_CONTENT 表示所有消息已经发送成功
+        ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!keepAlive) {
+            lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+        }
+        return true;
+    }
+
+    /**
+     * @return blocking 为 false 且缓存中没有时返回 null
+     */
+    private FileMetadata metadata(File file, boolean blocking) {
+        return blocking ? context.getMetadata(file) : context.getCachedMetadata(file);
+    }
+
+    /**
+     * 从打包文件发送，只有预压缩文件，没有实时压缩和内存缓存；多个区间时返回整个文件
+     */
+    private void sendPacked(ChannelHandlerContext ctx, HttpRequest request, QueryStringDecoder decoder,
+                            PackFile pack, String packPath, PackFile.Entry entry) {
+        HttpFileServerConfig config = context.getConfig();
+        AsciiString contentType = MimeTypes.contentType(packPath.substring(packPath.lastIndexOf('/') + 1));
+        AsciiString cacheControl = config.getCacheControlPolicy().forPath(decoder.path());
+        boolean vary = config.isPrecompressedEnabled();
+        AsciiString contentEncoding = null;
+        String acceptEncoding = request.headers().get(ACCEPT_ENCODING);
+        if (vary && acceptEncoding != null && !request.headers().contains(RANGE)) {
+            for (int i = 0; i < SIDECAR_CODINGS.length; i++) {
+                if (!AcceptEncoding.accepts(acceptEncoding, SIDECAR_CODINGS[i])) {
+                    continue;
+                }
+                PackFile.Entry sidecar = pack.get(packPath + SIDECAR_SUFFIXES[i]);
+                if (sidecar != null && sidecar.getLastModified() >= entry.getLastModified()) {
+                    entry = sidecar;
+                    contentEncoding = SIDECAR_CODING_VALUES[i];
+                    break;
+                }
+            }
+        }
+        FileValidator validator = entry.getValidator();
+        if (validator.isNotModified(request)) {
+            sendNotModified(ctx, validator, cacheControl, vary, keepAlive);
+            return;
+        }
+        long fileLength = entry.getLength();
+        String rangeHeader = !head && validator.isRangeValid(request) ? request.headers().get(RANGE) : null;
+        List<HttpRange> ranges = HttpRange.parse(rangeHeader, fileLength);
+        if (ranges != null && ranges.isEmpty()) {
+            sendRangeNotSatisfiable(ctx, fileLength, keepAlive);
+            return;
+        }
+        if (head) {
+            sendHead(ctx, fileLength, contentType, contentEncoding, vary, validator, cacheControl);
             return;
         }
-        long fileLength = randomAccessFile.length();
-        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
-        setContentLength(response, fileLength);
-        setContentTypeHeader(response, file);
-        if (isKeepAlive(request)) {
-            response.headers().set(CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
+        HttpRange range = ranges != null && ranges.size() == 1 ? ranges.get(0) : null;
+        HttpResponse response = new DefaultHttpResponse(HTTP_1_1, range == null ? OK : PARTIAL_CONTENT, false);
+        setContentLength(response, range == null ? fileLength : range.getLength());
+        response.headers().set(CONTENT_TYPE, contentType);
+        if (range != null) {
+            response.headers().set(CONTENT_RANGE, range.toContentRange(fileLength));
         }
+        setRepresentationHeaders(response.headers(), contentEncoding, vary, validator, cacheControl);
+        HttpUtil.setKeepAlive(response, keepAlive);
         ctx.write(response);
-        ChannelFuture sendFileFuture;
-        sendFileFuture = ctx.write(new ChunkedFile(randomAccessFile, 0,
-                fileLength, 8192), ctx.newProgressivePromise()); // 通过 chunkFile将文件写入到发送缓冲区
-        sendFileFuture.addListener(new ChannelProgressiveFutureListener() {
+        TrafficShaping shaping = context.getTrafficShaping();
+        long offset = entry.getOffset() + (range == null ? 0 : range.getStart());
+        long length = range == null ? fileLength : range.getLength();
+        if (isZeroCopy(ctx, shaping != null && !shaping.isInteractive(decoder.path()))) {
+            ctx.write(pack.region(offset, length));
+        } else {
+            ctx.write(pack.chunkedInput(offset, length, 8192));
+        }
+        ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!keepAlive) {
+            lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    /**
+     * 文件在打包文件中的路径，以 / 分隔，不以 / 开头
+     *
+     * @return 不在服务目录下时返回 null
+     */
+    private String packPath(String path) {
+        String root = System.getProperty("user.dir") + File.separator + url.replace('/', File.separatorChar);
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        int start = root.length();
+        while (start < path.length() && path.charAt(start) == File.separatorChar) {
+            start++;
+        }
+        if (start == path.length() || start == root.length() && !root.endsWith(File.separator)) {
+            return null; // 服务目录本身，或者只是前缀相同的其他目录
+        }
+        return path.substring(start).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * HEAD 请求的响应，和 GET 的响应头一致，没有响应体
+     */
+    private void sendHead(ChannelHandlerContext ctx, long length, AsciiString contentType, AsciiString contentEncoding,
+                          boolean vary, FileValidator validator, AsciiString cacheControl) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.EMPTY_BUFFER, false);
+        setContentLength(response, length);
+        response.headers().set(CONTENT_TYPE, contentType);
+        setRepresentationHeaders(response.headers(), contentEncoding, vary, validator, cacheControl);
+        sendResponse(ctx, response, keepAlive);
+    }
+
+    /**
+     * TLS 需要在用户态加密；HTTP/2 的文件内容要切成 DATA 帧；限速要按小块计量，这些情况都不能 sendfile
+     */
+    private static boolean isZeroCopy(ChannelHandlerContext ctx, boolean shaped) {
+        return ctx.pipeline().get(SslHandler.class) == null && !(ctx.channel() instanceof Http2StreamChannel)
+                && !shaped;
+    }
+
+    /**
+     * GET 和 HEAD 共用的响应头
+     */
+    private static void setRepresentationHeaders(HttpHeaders headers, AsciiString contentEncoding, boolean vary,
+                                                 FileValidator validator, AsciiString cacheControl) {
+        headers.set(ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        if (contentEncoding != null) {
+            headers.set(CONTENT_ENCODING, contentEncoding);
+        }
+        if (vary) {
+            headers.set(VARY, ACCEPT_ENCODING);
+        }
+        validator.setHeaders(headers);
+        if (cacheControl != null) {
+            headers.set(CACHE_CONTROL, cacheControl);
+        }
+    }
+
+    /**
+     * 开始上传，目标必须是已存在目录下允许展示的文件名。
+     * 检查目标和创建临时文件都要访问文件系统，在文件操作线程池中进行，完成前暂停读取请求体。
+     * 拒绝上传时客户端可能已经在发送请求体，或者在等待 100 Continue，只能关闭连接
+     */
+    private void startUpload(final ChannelHandlerContext ctx, HttpRequest request, final File file) {
+        final HttpFileServerConfig config = context.getConfig();
+        if (!DirectoryListing.isAllowedName(file.getName())) {
+            sendError(ctx, FORBIDDEN, false);
+            return;
+        }
+        if (HttpUtil.getContentLength(request, -1L) > config.getUploadMaxSize()) { // 不等请求体到达就拒绝
+            sendError(ctx, REQUEST_ENTITY_TOO_LARGE, false);
+            return;
+        }
+        final boolean continueExpected = HttpUtil.is100ContinueExpected(request);
+        offload(ctx, new FileIoTask() {
+
+            private HttpResponseStatus rejection;
+
+            private FileUpload started;
+
             @Override
-            public void operationProgressed(ChannelProgressiveFuture future,
-                                            long progress, long total) {
-                if (total < 0) { // total unknown
-                    System.err.println("Transfer progress: " + progress);
+            void run() throws IOException {
+                if (context.getMetadata(file).isDirectory()) {
+                    rejection = FORBIDDEN;
+                } else if (!context.getMetadata(file.getParentFile()).isDirectory()) {
+                    rejection = CONFLICT;
                 } else {
-                    System.err.println("Transfer progress: " + progress + " / " + total);
+                    started = FileUpload.start(file.toPath(), config.getUploadMaxSize(), config.isUploadFsync());
                 }
             }
 
             @Override
-            public void operationComplete(ChannelProgressiveFuture future)
-                    throws Exception {
-                System.out.println("Transfer complete.");
+            void done(Throwable cause) {
+                if (cause != null) {
+                    cause.printStackTrace();
+                    sendError(ctx, INTERNAL_SERVER_ERROR, false);
+                } else if (rejection != null) {
+                    sendError(ctx, rejection, false);
+                } else if (!ctx.channel().isActive()) { // 创建期间连接已经断开，不留下临时文件
+                    started.abort();
+                } else {
+                    upload = started;
+                    if (continueExpected) {
+                        ctx.writeAndFlush(new DefaultFullHttpResponse(HTTP_1_1, CONTINUE));
+                    }
+                }
             }
         });
-        // 如果使用 chunked 编码，最后需要发送一个编码结束的空消息体，写入 EMPTY_LAST_CONTENT 表示所有消息已经发送成功
-        ChannelFuture lastContentFuture = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
-        if (!isKeepAlive(request)) {
-            lastContentFuture.addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * 请求体在文件操作线程池中写入临时文件，收到最后一块后在那里落盘并替换目标文件。
+     * 写入期间暂停读取，一个连接同时只有一块请求体在内存中等待写入
+     */
+    private void receiveUpload(final ChannelHandlerContext ctx, HttpContent content) {
+        if (!content.getDecoderResult().isSuccess()) {
+            abortUpload();
+            sendError(ctx, BAD_REQUEST, false);
+            return;
+        }
+        final FileUpload current = upload;
+        final ByteBuf data = content.content().retain();
+        final boolean last = content instanceof LastHttpContent;
+        offload(ctx, new FileIoTask() {
+
+            private boolean tooLarge;
+
+            private boolean created;
+
+            @Override
+            void run() throws IOException {
+                try {
+                    tooLarge = !current.write(data);
+                } finally {
+                    data.release();
+                }
+                if (!tooLarge && last) {
+                    created = current.commit();
+                }
+            }
+
+            @Override
+            void rejected() {
+                data.release();
+            }
+
+            @Override
+            void done(Throwable cause) {
+                if (upload != current) { // 写入期间连接已经断开或者出错，上传已经中止
+                    return;
+                }
+                if (cause != null) {
+                    cause.printStackTrace();
+                    abortUpload();
+                    sendError(ctx, INTERNAL_SERVER_ERROR, false);
+                } else if (tooLarge) {
+                    abortUpload();
+                    sendError(ctx, REQUEST_ENTITY_TOO_LARGE, false);
+                } else if (last) {
+                    upload = null;
+                    context.invalidate(current.getTarget().toFile());
+                    sendResponse(ctx, new DefaultFullHttpResponse(HTTP_1_1, created ? CREATED : NO_CONTENT),
+                            keepAlive);
+                }
+            }
+        });
+    }
+
+    /**
+     * 在文件操作线程池中执行 task，期间暂停读取并暂存之后的消息，完成后回到 I/O 线程调用 done 并继续处理。
+     * 线程池已满时中止上传，返回 503 并关闭连接
+     */
+    private void offload(final ChannelHandlerContext ctx, final FileIoTask task) {
+        suspend(ctx);
+        try {
+            context.getFileIoExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable failure = null;
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    final Throwable cause = failure;
+                    ctx.executor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                task.done(cause);
+                            } finally {
+                                resume(ctx);
+                            }
+                        }
+                    });
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.rejected();
+            abortUpload();
+            sendError(ctx, SERVICE_UNAVAILABLE, false);
+            resume(ctx);
+        }
+    }
+
+    private void abortUpload() {
+        if (upload != null) {
+            upload.abort();
+            upload = null;
         }
     }
 
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        abortUpload(); // 客户端中途断开，不留下临时文件
+        HttpObject msg;
+        while ((msg = queued.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 文件中的一段内容，没有 TLS 时用 FileRegion，底层调用 sendfile，文件内容不经过用户态；
+     * TLS 需要在用户态加密，只能通过 chunkFile 分块读取文件写入到发送缓冲区
+     */
+    private static Object fileContent(RandomAccessFile file, long offset, long length, boolean zeroCopy)
+            throws IOException {
+        if (zeroCopy) {
+            return new DefaultFileRegion(file.getChannel(), offset, length);
+        }
+        return new ChunkedFile(file, offset, length, 8192);
+    }
+
+    /**
+     * 以 multipart/byteranges 返回多个区间，每个区间仍然零拷贝发送。
+     * 每段单独打开文件，FileRegion 释放时会关闭自己的文件；写出响应前全部打开，文件不存在时什么都不写
+     */
+    private static void sendMultipartRanges(ChannelHandlerContext ctx, HttpResponse response,
+                                                     File file, AsciiString contentType, List<HttpRange> ranges,
+                                                     long fileLength, boolean zeroCopy) throws IOException {
+        List<RandomAccessFile> files = new ArrayList<>(ranges.size());
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                files.add(new RandomAccessFile(file, "r"));
+            }
+        } catch (FileNotFoundException e) {
+            for (RandomAccessFile opened : files) {
+                opened.close();
+            }
+            throw e;
+        }
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        List<ByteBuf> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (HttpRange range : ranges) {
+            ByteBuf partHeader = Unpooled.copiedBuffer("\r\n--" + boundary + "\r\n"
+                    + CONTENT_TYPE + ": " + contentType + "\r\n"
+                    + CONTENT_RANGE + ": " + range.toContentRange(fileLength) + "\r\n\r\n", CharsetUtil.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.readableBytes() + range.getLength();
+        }
+        ByteBuf closeDelimiter = Unpooled.copiedBuffer("\r\n--" + boundary + "--\r\n", CharsetUtil.US_ASCII);
+        contentLength += closeDelimiter.readableBytes();
+
+        response.headers().set(CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        setContentLength(response, contentLength);
+        ctx.write(response);
+        for (int i = 0; i < ranges.size(); i++) {
+            HttpRange range = ranges.get(i);
+            ctx.write(partHeaders.get(i));
+            ctx.write(fileContent(files.get(i), range.getStart(), range.getLength(), zeroCopy));
+        }
+        ctx.write(closeDelimiter);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
             throws Exception {
         cause.printStackTrace();
+        abortUpload();
         if (ctx.channel().isActive()) {
-            sendError(ctx, INTERNAL_SERVER_ERROR);
+            sendError(ctx, INTERNAL_SERVER_ERROR, false); // 响应可能已经写出一部分，只能关闭连接
         }
     }
 
@@ -153,72 +807,183 @@ public class HttpFileServerHandler extends SimpleChannelInboundHandler<FullHttpR
         return System.getProperty("user.dir") + File.separator + uri;
     }
 
-    private static final Pattern ALLOWED_FILE_NAME = Pattern.compile("[A-Za-z0-9][-_A-Za-z0-9\\.]*");
+    /**
+     * 返回文件列表，支持 ?offset=&limit= 分页，?format=json 或 Accept: application/json 时返回 JSON。
+     * 扫描目录会阻塞，只在文件操作线程池中调用，项数很多时分块写出
+     */
+    private void sendListing(ChannelHandlerContext ctx, HttpRequest request, File dir, QueryStringDecoder decoder) {
+        int offset;
+        int limit;
+        try {
+            offset = intParameter(decoder, "offset", 0);
+            limit = intParameter(decoder, "limit", Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            sendError(ctx, BAD_REQUEST, keepAlive);
+            return;
+        }
+        String accept = request.headers().get(ACCEPT);
+        boolean json = "json".equals(parameter(decoder, "format"))
+                || accept != null && accept.contains(HttpHeaderValues.APPLICATION_JSON);
+        String title = json ? decoder.path() : dir.getPath();
+        writeListing(ctx, dir, title, json, offset, limit, context.getConfig().getListingStreamThreshold(), keepAlive);
+    }
+
+    private void writeListing(ChannelHandlerContext ctx, File dir, String title, boolean json, int offset,
+                                     int limit, int streamThreshold, boolean keepAlive) {
+        DirectoryListingPage page;
+        try {
+            page = new DirectoryListingPage(context.getListing(dir), title, json, offset, limit);
+        } catch (NoSuchFileException | NotDirectoryException e) { // 目录在排队期间被删除
+            sendError(ctx, NOT_FOUND, keepAlive);
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            sendError(ctx, INTERNAL_SERVER_ERROR, keepAlive);
+            return;
+        }
+        AsciiString contentType = json ? JSON_UTF_8 : HTML_UTF_8;
+        if (head) { // 长度已经算好，不需要生成内容
+            FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK);
+            response.headers().set(CONTENT_TYPE, contentType);
+            setContentLength(response, page.length());
+            sendResponse(ctx, response, keepAlive);
+        } else if (page.size() <= streamThreshold) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, page.toByteBuf());
+            response.headers().set(CONTENT_TYPE, contentType);
+            sendResponse(ctx, response, keepAlive);
+        } else { // 长度已经算好，内容由 ChunkedWriteHandler 逐批生成
+            HttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+            response.headers().set(CONTENT_TYPE, contentType);
+            setContentLength(response, page.length());
+            HttpUtil.setKeepAlive(response, keepAlive);
+            ctx.write(response);
+            ctx.write(page);
+            ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            if (!keepAlive) {
+                future.addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+    }
+
+    private static String parameter(QueryStringDecoder decoder, String name) {
+        List<String> values = decoder.parameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
 
     /**
-     * 返回文件列表
-     *
-     * @param ctx
-     * @param dir
-     */
-    private static void sendListing(ChannelHandlerContext ctx, File dir) {
-        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK); // 创建一个默认的 response
-        response.headers().set(CONTENT_TYPE, "text/html; charset=UTF-8"); // 设置响应头
-        StringBuilder buf = new StringBuilder();
-        String dirPath = dir.getPath();
-        buf.append("<!DOCTYPE html>\r\n");
-        buf.append("<html><head><title>");
-        buf.append(dirPath);
-        buf.append(" 目录：");
-        buf.append("</title></head><body>\r\n");
-        buf.append("<h3>");
-        buf.append(dirPath).append(" 目录：");
-        buf.append("</h3>\r\n");
-        buf.append("<ul>");
-        buf.append("<li>链接：<a href=\"../\">..</a></li>\r\n"); // 父目录的链接
-        for (File f : dir.listFiles()) {
-            if (f.isHidden() || !f.canRead()) { // 跳过隐藏文件或者不可读文件
-                continue;
-            }
-            String name = f.getName();
-            if (!ALLOWED_FILE_NAME.matcher(name).matches()) { // 判断是否是允许查看的文件
-                continue;
-            }
-            buf.append("<li>链接：<a href=\"");
-            buf.append(name);
-            buf.append("\">");
-            buf.append(name);
-            buf.append("</a></li>\r\n");
-        }
-        buf.append("</ul></body></html>\r\n");
-        ByteBuf buffer = Unpooled.copiedBuffer(buf, CharsetUtil.UTF_8);
-        response.content().writeBytes(buffer);
-        buffer.release();
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE); // 发送给客户端
-    }
-
-    private static void sendRedirect(ChannelHandlerContext ctx, String newUri) {
+     * @throws NumberFormatException 参数不是非负整数
+     */
+    private static int intParameter(QueryStringDecoder decoder, String name, int defaultValue) {
+        String value = parameter(decoder, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        int n = Integer.parseInt(value);
+        if (n < 0) {
+            throw new NumberFormatException(name + " is negative");
+        }
+        return n;
+    }
+
+    /**
+     * 返回 304，只带校验信息和缓存策略，没有 body
+     */
+    private void sendNotModified(ChannelHandlerContext ctx, FileValidator validator, AsciiString cacheControl,
+                                        boolean vary, boolean keepAlive) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED);
+        validator.setHeaders(response.headers());
+        if (vary) {
+            response.headers().set(VARY, ACCEPT_ENCODING);
+        }
+        if (cacheControl != null) {
+            response.headers().set(CACHE_CONTROL, cacheControl);
+        }
+        sendResponse(ctx, response, keepAlive);
+    }
+
+    /**
+     * 请求的区间都不在文件范围内
+     */
+    private void sendRangeNotSatisfiable(ChannelHandlerContext ctx, long fileLength, boolean keepAlive) {
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.headers().set(CONTENT_RANGE, "bytes */" + fileLength);
+        sendResponse(ctx, response, keepAlive);
+    }
+
+    private void sendRedirect(ChannelHandlerContext ctx, String newUri, boolean keepAlive) {
         FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, FOUND);
         response.headers().set(LOCATION, newUri);
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        sendResponse(ctx, response, keepAlive);
+    }
+
+    /**
+     * 发送错误信息，连接是否保持取决于当前请求
+     */
+    private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+        sendError(ctx, status, keepAlive);
     }
 
     /**
      * 发送错误信息
      *
-     * @param ctx
-     * @param status
+     * @param keepAlive 为 false 时发送后关闭连接
      */
-    private static void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
+    private void sendError(ChannelHandlerContext ctx, HttpResponseStatus status, boolean keepAlive) {
+        sendResponse(ctx, errorResponse(status), keepAlive);
+    }
+
+    private static FullHttpResponse errorResponse(HttpResponseStatus status) {
         FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1,
                 status, Unpooled.copiedBuffer("Failure: " + status.toString()
                 + "\r\n", CharsetUtil.UTF_8));
-        response.headers().set(CONTENT_TYPE, "text/plain; charset=UTF-8");
-        ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        response.headers().set(CONTENT_TYPE, TEXT_PLAIN_UTF_8);
+        return response;
+    }
+
+    /**
+     * 发送完整的响应。保持连接时客户端靠 Content-Length 判断响应结束，所以总是带上（204、304 除外）。
+     * HEAD 请求去掉响应体，Content-Length 仍然是 GET 时的长度
+     */
+    private void sendResponse(ChannelHandlerContext ctx, FullHttpResponse response, boolean keepAlive) {
+        HttpResponseStatus status = response.status();
+        if (status.code() != NO_CONTENT.code() && status.code() != NOT_MODIFIED.code()
+                && !response.headers().contains(HttpHeaderNames.CONTENT_LENGTH)) {
+            setContentLength(response, response.content().readableBytes());
+        }
+        if (head && response.content().isReadable()) {
+            FullHttpResponse headers = response.replace(Unpooled.EMPTY_BUFFER);
+            response.release();
+            response = headers;
+        }
+        HttpUtil.setKeepAlive(response, keepAlive);
+        ChannelFuture future = ctx.writeAndFlush(response);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
     }
 
-    private static void setContentTypeHeader(HttpResponse response, File file) {
-        MimetypesFileTypeMap mimeTypesMap = new MimetypesFileTypeMap();
-        response.headers().set(CONTENT_TYPE, mimeTypesMap.getContentType(file.getPath()));
+    /**
+     * 交给 {@link #offload(ChannelHandlerContext, FileIoTask)} 的阻塞操作
+     */
+    private abstract static class FileIoTask {
+
+        /**
+         * 在文件操作线程池中执行，可以阻塞
+         */
+        abstract void run() throws IOException;
+
+        /**
+         * 在 I/O 线程中执行
+         *
+         * @param cause 为空表示 run 正常完成
+         */
+        abstract void done(Throwable cause);
+
+        /**
+         * 线程池已满、run 不会执行时在 I/O 线程调用，释放 task 持有的资源
+         */
+        void rejected() {
+        }
     }
+
 }
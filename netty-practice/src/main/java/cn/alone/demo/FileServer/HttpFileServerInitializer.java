@@ -0,0 +1,279 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 文件服务器的连接初始化。默认同时支持 HTTP/1.1 和明文 HTTP/2（h2c）：
+ * 客户端直接发送 HTTP/2 连接前言（prior knowledge），或者通过 Upgrade: h2c 升级。
+ * HTTP/2 的每个流是一个子 channel，流帧转换成 HttpObject 后交给同一个 {@link HttpFileServerHandler} 处理
+ */
+public class HttpFileServerInitializer extends ChannelInitializer<SocketChannel> {
+
+    private static final String CHUNKED = "http-chunked";
+
+    private static final String TRAFFIC_GLOBAL = "traffic-global";
+
+    private static final String TRAFFIC_ADDRESS = "traffic-address";
+
+    private static final String TRAFFIC_PRIORITY = "traffic-priority";
+
+    private static final String ACCESS_LOG = "http-accessLog";
+
+    private static final ChannelHandler IDLE_CLOSE_HANDLER = new IdleCloseHandler();
+
+    private static final AttributeKey<GlobalTrafficShapingHandler> CONNECTION_TRAFFIC =
+            AttributeKey.valueOf("fileserver.connectionTraffic");
+
+    private static final String FILE_SERVER_HANDLER = "http-fileServerHandler";
+
+    /**
+     * 升级请求会被聚合，限制它的大小
+     */
+    private static final int MAX_UPGRADE_CONTENT_LENGTH = 65536;
+
+    private final String url;
+
+    private final HttpFileServerContext context;
+
+    public HttpFileServerInitializer(String url, HttpFileServerContext context) {
+        this.url = url;
+        this.context = context;
+    }
+
+    @Override
+    protected void initChannel(SocketChannel ch) throws Exception {
+        HttpFileServerConfig config = context.getConfig();
+        ChannelPipeline pipeline = ch.pipeline();
+        int idleTimeout = config.getIdleTimeoutSeconds();
+        if (idleTimeout > 0) { // 发送大文件期间客户端不发数据，写出有进展也算活跃
+            pipeline.addLast("idle", new IdleStateHandler(true, 0, 0, idleTimeout, TimeUnit.SECONDS));
+            // 切换到 HTTP/2 时不会被移除，HTTP/1.1 和 HTTP/2 的连接都由它关闭
+            pipeline.addLast("idle-close", IDLE_CLOSE_HANDLER);
+        }
+        if (config.isH2cEnabled()) {
+            final HttpServerCodec codec = new HttpServerCodec();
+            HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(codec,
+                    new HttpServerUpgradeHandler.UpgradeCodecFactory() {
+                        @Override
+                        public HttpServerUpgradeHandler.UpgradeCodec newUpgradeCodec(CharSequence protocol) {
+                            if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                                return new Http2ServerUpgradeCodec(newHttp2FrameCodec(),
+                                        new Http1HandlersRemover(), newHttp2MultiplexHandler());
+                            }
+                            return null;
+                        }
+                    }, MAX_UPGRADE_CONTENT_LENGTH);
+            // 以 HTTP/2 连接前言开头时直接切换到 HTTP/2，否则按 HTTP/1.1 处理，请求中可能带有升级头
+            pipeline.addLast("h2c", new CleartextHttp2ServerUpgradeHandler(codec, upgradeHandler,
+                    new PriorKnowledgeInitializer()));
+        } else {
+            pipeline.addLast("http-codec", new HttpServerCodec());
+        }
+        addTrafficHandlers(ch, TRAFFIC_GLOBAL, TRAFFIC_ADDRESS, TRAFFIC_PRIORITY);
+        // 出站方向在 ChunkedWriteHandler 之后，统计的是分块后交给编码器的内容
+        pipeline.addLast(ACCESS_LOG, newAccessLogHandler());
+        pipeline.addLast(CHUNKED, new ChunkedWriteHandler());
+        pipeline.addLast(FILE_SERVER_HANDLER, new HttpFileServerHandler(url, context));
+    }
+
+    /**
+     * 整形器紧挨着 HTTP 编解码器，看到的是分块后的响应体；HTTP/2 加在每个流上，不会延迟连接级别的控制帧，
+     * 每个连接的限速由同一连接的所有流共享的整形器合计
+     */
+    private void addTrafficHandlers(Channel ch, String globalName, String addressName, String priorityName) {
+        final TrafficShaping shaping = context.getTrafficShaping();
+        if (shaping == null) {
+            return;
+        }
+        ChannelPipeline pipeline = ch.pipeline();
+        if (shaping.getGlobalHandler() != null) {
+            pipeline.addLast(globalName, shaping.getGlobalHandler());
+        }
+        if (ch.remoteAddress() instanceof InetSocketAddress) {
+            final InetAddress address = ((InetSocketAddress) ch.remoteAddress()).getAddress();
+            ChannelHandler addressHandler = shaping.acquireAddressHandler(address);
+            if (addressHandler != null) {
+                pipeline.addLast(addressName, addressHandler);
+                ch.closeFuture().addListener(new ChannelFutureListener() {
+                    @Override
+                    public void operationComplete(ChannelFuture future) throws Exception {
+                        shaping.releaseAddressHandler(address);
+                    }
+                });
+            }
+        }
+        if (ch instanceof Http2StreamChannel) {
+            ChannelHandler connectionHandler = connectionTrafficHandler(ch.parent(), shaping);
+            if (connectionHandler != null) {
+                pipeline.addLast(connectionHandler);
+            }
+        }
+        pipeline.addLast(priorityName, new TrafficPriorityHandler(shaping));
+    }
+
+    /**
+     * HTTP/2 连接的所有流共享的整形器，第一个流创建时生成，连接关闭时释放。
+     * 流的初始化在父 channel 的 I/O 线程中进行，不需要同步
+     */
+    private static ChannelHandler connectionTrafficHandler(Channel parent, TrafficShaping shaping) {
+        Attribute<GlobalTrafficShapingHandler> attr = parent.attr(CONNECTION_TRAFFIC);
+        GlobalTrafficShapingHandler handler = attr.get();
+        if (handler == null) {
+            handler = shaping.newConnectionHandler();
+            if (handler == null) {
+                return null;
+            }
+            attr.set(handler);
+            final GlobalTrafficShapingHandler created = handler;
+            parent.closeFuture().addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    created.release(); // 停止统计任务
+                }
+            });
+        }
+        return handler;
+    }
+
+    private AccessLogHandler newAccessLogHandler() {
+        return new AccessLogHandler(context.getMetrics(), context.getAccessLog());
+    }
+
+    private Http2FrameCodec newHttp2FrameCodec() {
+        return Http2FrameCodecBuilder.forServer()
+                .initialSettings(Http2Settings.defaultSettings()
+                        .maxConcurrentStreams(context.getConfig().getH2MaxConcurrentStreams()))
+                .build();
+    }
+
+    private Http2MultiplexHandler newHttp2MultiplexHandler() {
+        return new Http2MultiplexHandler(new ChannelInitializer<Http2StreamChannel>() {
+            @Override
+            protected void initChannel(Http2StreamChannel ch) throws Exception {
+                ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                addTrafficHandlers(ch, null, null, null);
+                ch.pipeline().addLast(new ByteBufToHttpContentEncoder());
+                ch.pipeline().addLast(newAccessLogHandler());
+                // 子 channel 的可写状态跟随流的发送窗口，ChunkedWriteHandler 据此按流控节奏读取文件
+                ch.pipeline().addLast(new ChunkedWriteHandler());
+                ch.pipeline().addLast(new HttpFileServerHandler(url, context));
+            }
+        });
+    }
+
+    /**
+     * 切换到 HTTP/2 后，父 channel 上处理 HTTP/1.1 的 handler 不再需要
+     */
+    private static void removeHttp1Handlers(ChannelPipeline pipeline) {
+        if (pipeline.get(FILE_SERVER_HANDLER) != null) {
+            pipeline.remove(FILE_SERVER_HANDLER);
+        }
+        if (pipeline.get(CHUNKED) != null) {
+            pipeline.remove(CHUNKED);
+        }
+        if (pipeline.get(ACCESS_LOG) != null) {
+            pipeline.remove(ACCESS_LOG);
+        }
+        // 连接级别的整形器会延迟 HTTP/2 的控制帧，换成每个流上的整形器；IP 的计数在连接关闭时释放
+        for (String name : new String[]{TRAFFIC_PRIORITY, TRAFFIC_ADDRESS, TRAFFIC_GLOBAL}) {
+            if (pipeline.get(name) != null) {
+                pipeline.remove(name);
+            }
+        }
+    }
+
+    /**
+     * 通过 Upgrade: h2c 升级时，HTTP/2 的 handler 由 Http2ServerUpgradeCodec 添加，这里只负责移除 HTTP/1.1 的 handler
+     */
+    private static class Http1HandlersRemover extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            removeHttp1Handlers(ctx.pipeline());
+            ctx.pipeline().remove(this);
+        }
+    }
+
+    /**
+     * 收到 HTTP/2 连接前言时替换掉 HTTP/1.1 的 handler。
+     * 不能用 ChannelInitializer，它的 addLast 会把 HTTP/2 的 handler 加到 HTTP/1.1 的 handler 后面
+     */
+    private class PriorKnowledgeInitializer extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+            ChannelPipeline pipeline = ctx.pipeline();
+            removeHttp1Handlers(pipeline);
+            Http2FrameCodec frameCodec = newHttp2FrameCodec();
+            pipeline.addAfter(ctx.name(), null, frameCodec);
+            // Http2MultiplexHandler 添加时要求 Http2FrameCodec 已经在它前面
+            pipeline.addAfter(pipeline.context(frameCodec).name(), null, newHttp2MultiplexHandler());
+            pipeline.remove(this);
+        }
+    }
+
+    /**
+     * HttpFileServerHandler 会直接写出 ByteBuf（缓存的文件内容、ChunkedFile 的分块、multipart 分隔符），
+     * HTTP/1.1 的编码器可以直接发送，HTTP/2 的流帧编解码器只接受 HttpObject，这里包装成 HttpContent
+     */
+    @ChannelHandler.Sharable
+    private static class ByteBufToHttpContentEncoder extends MessageToMessageEncoder<ByteBuf> {
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf msg, List<Object> out) throws Exception {
+            out.add(new DefaultHttpContent(msg.retain()));
+        }
+    }
+
+    /**
+     * 空闲超时，回收保持的连接
+     */
+    @ChannelHandler.Sharable
+    private static class IdleCloseHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                ctx.close();
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package cn.alone.demo.FileServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * Range 请求头中的一个字节区间，只支持 bytes 单位，例如 bytes=0-99,200-,-50
+ */
+public class HttpRange {
+
+    /**
+     * 一个请求最多允许的区间数，超过时忽略 Range 返回整个文件，防止大量小区间放大请求
+     */
+    private static final int MAX_RANGES = 16;
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * 起始位置，包含
+     */
+    private final long start;
+
+    /**
+     * 结束位置，包含
+     */
+    private final long end;
+
+    private HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 解析 Range 请求头
+     *
+     * @param header     Range 请求头，可以为空
+     * @param fileLength 文件长度
+     * @return null 表示没有 Range 或者无法识别，应返回整个文件；空列表表示所有区间都超出了文件范围，应返回 416
+     */
+    public static List<HttpRange> parse(String header, long fileLength) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<HttpRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) { // -n 表示最后 n 个字节
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, fileLength - suffix);
+                    end = fileLength - 1;
+                } else {
+                    start = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) { // n- 表示从 n 到文件末尾
+                        end = fileLength - 1;
+                    } else {
+                        end = Long.parseLong(spec.substring(dash + 1));
+                        if (end < start) { // 语法错误，整个 Range 头无效
+                            return null;
+                        }
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start >= fileLength) { // 不可满足的区间跳过
+                continue;
+            }
+            ranges.add(new HttpRange(start, Math.min(end, fileLength - 1)));
+        }
+        return ranges.isEmpty() ? Collections.<HttpRange>emptyList() : ranges;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Content-Range 响应头的值
+     */
+    public String toContentRange(long fileLength) {
+        return "bytes " + start + '-' + end + '/' + fileLength;
+    }
+
+}
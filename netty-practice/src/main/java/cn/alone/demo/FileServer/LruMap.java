@@ -0,0 +1,26 @@
+package cn.alone.demo.FileServer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 按访问顺序淘汰的 LinkedHashMap，条目数超过 maxEntries 时删除最久没有访问的，不是线程安全的
+ */
+final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+
+    LruMap(int maxEntries) {
+        super(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > maxEntries;
+    }
+
+}
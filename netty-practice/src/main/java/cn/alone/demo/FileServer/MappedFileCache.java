@@ -0,0 +1,189 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 大文件的内存映射缓存。无法使用 sendfile（例如 TLS）时，文件只映射一次，所有请求共享同一段映射，
+ * 不需要每个请求都 read 到堆内存。
+ * <p>
+ * 映射通过引用计数管理：缓存持有一个引用，每个请求发送期间持有一个引用，
+ * 被淘汰或者文件变化后，最后一个请求发送完成时才解除映射
+ */
+public class MappedFileCache implements FileChangeWatcher.Listener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedFileCache.class);
+
+    /**
+     * 访问次数达到这个值才映射，只读一次的文件不值得建立映射
+     */
+    private static final int ADMIT_FREQUENCY = 2;
+
+    private final long minFileSize;
+
+    private final int maxFiles;
+
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<Path, MappedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    public MappedFileCache(long minFileSize, int maxFiles) {
+        this.minFileSize = minFileSize;
+        this.maxFiles = maxFiles;
+        this.sketch = new FrequencySketch(Math.max(1024, maxFiles * 16));
+    }
+
+    /**
+     * 只返回已经建立的映射，不打开文件，也不计入访问频率，调用方在发送完成后调用 {@link MappedFile#release()}
+     *
+     * @return 没有映射或者与元数据不一致时返回 null
+     */
+    public synchronized MappedFile getIfPresent(Path path, FileMetadata metadata) {
+        MappedFile mapped = files.get(path);
+        return mapped != null && mapped.matches(metadata) ? (MappedFile) mapped.retain() : null;
+    }
+
+    /**
+     * 返回文件的映射，调用方在发送完成后调用 {@link MappedFile#release()}
+     *
+     * @param metadata 文件当前的元数据，映射建立后文件变化时重新映射
+     * @return 文件不适合映射时返回 null
+     */
+    public MappedFile get(Path path, FileMetadata metadata) {
+        long length = metadata.getLength();
+        if (length < minFileSize || length > Integer.MAX_VALUE) { // ByteBuf 的索引是 int
+            return null;
+        }
+        sketch.increment(path);
+        synchronized (this) {
+            MappedFile mapped = files.get(path);
+            if (mapped != null) {
+                if (mapped.matches(metadata)) {
+                    return (MappedFile) mapped.retain();
+                }
+                remove(path);
+            }
+        }
+        if (sketch.frequency(path) < ADMIT_FREQUENCY) {
+            return null;
+        }
+        MappedFile mapped = map(path, metadata);
+        if (mapped == null) {
+            return null;
+        }
+        synchronized (this) {
+            MappedFile existing = files.get(path);
+            if (existing != null && existing.matches(metadata)) { // 其他线程已经映射
+                mapped.release();
+                return (MappedFile) existing.retain();
+            }
+            remove(path);
+            while (files.size() >= maxFiles) {
+                remove(files.keySet().iterator().next());
+            }
+            files.put(path, mapped);
+            return (MappedFile) mapped.retain();
+        }
+    }
+
+    private void remove(Path path) {
+        MappedFile mapped = files.remove(path);
+        if (mapped != null) {
+            mapped.release();
+        }
+    }
+
+    private static MappedFile map(Path path, FileMetadata metadata) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // 映射建立后不依赖文件描述符，可以立即关闭
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, metadata.getLength());
+            return new MappedFile(buffer, metadata);
+        } catch (IOException e) {
+            LOGGER.warn("map {} failed : {}", path, e.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized void onChange(Path path, boolean recursive) {
+        remove(path);
+        if (recursive) {
+            Iterator<Map.Entry<Path, MappedFile>> it = files.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, MappedFile> e = it.next();
+                if (e.getKey().startsWith(path)) {
+                    e.getValue().release();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void onOverflow() {
+        for (MappedFile mapped : files.values()) {
+            mapped.release();
+        }
+        files.clear();
+    }
+
+    /**
+     * 一个文件的只读映射
+     */
+    public static class MappedFile extends AbstractReferenceCounted {
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * 包装映射的 ByteBuf，不会在 release 时释放映射，映射的生命周期由 MappedFile 的引用计数决定
+         */
+        private final ByteBuf content;
+
+        private final long length;
+
+        private final long lastModified;
+
+        MappedFile(MappedByteBuffer buffer, FileMetadata metadata) {
+            this.buffer = buffer;
+            this.content = Unpooled.wrappedBuffer(buffer);
+            this.length = metadata.getLength();
+            this.lastModified = metadata.getLastModified();
+        }
+
+        /**
+         * 文件中的一段内容，由 Netty 在写出后释放；调用方仍需持有 MappedFile 的引用直到写出完成
+         */
+        public ByteBuf slice(long offset, long length) {
+            return content.retainedSlice((int) offset, (int) length);
+        }
+
+        boolean matches(FileMetadata metadata) {
+            return length == metadata.getLength() && lastModified == metadata.getLastModified();
+        }
+
+        @Override
+        protected void deallocate() {
+            PlatformDependent.freeDirectBuffer(buffer); // 解除映射
+        }
+
+        @Override
+        public MappedFile touch(Object hint) {
+            return this;
+        }
+    }
+
+}
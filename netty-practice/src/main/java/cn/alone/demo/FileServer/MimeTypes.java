@@ -0,0 +1,94 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.util.AsciiString;
+
+import javax.activation.MimetypesFileTypeMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 扩展名到 Content-Type 的映射，只在类加载时构建一次。
+ * 值是 AsciiString，HTTP 编码器直接复制字节，不需要每次按字符编码。
+ * 内置表没有的扩展名交给共享的 MimetypesFileTypeMap（仍然读取 mime.types 配置），结果缓存起来
+ */
+public final class MimeTypes {
+
+    public static final AsciiString OCTET_STREAM = AsciiString.cached("application/octet-stream");
+
+    /**
+     * 回退查询结果最多缓存的扩展名数，扩展名来自磁盘上的文件名，正常情况下远小于这个数
+     */
+    private static final int MAX_CACHED_EXTENSIONS = 1024;
+
+    private static final Map<String, AsciiString> BUILT_IN = new HashMap<>();
+
+    private static final ConcurrentHashMap<String, AsciiString> RESOLVED = new ConcurrentHashMap<>();
+
+    /**
+     * 构造时解析 mime.types，只创建一次；getContentType 是同步方法，只在缓存未命中时调用
+     */
+    private static final MimetypesFileTypeMap FALLBACK = new MimetypesFileTypeMap();
+
+    static {
+        add("text/html", "html", "htm");
+        add("text/css", "css");
+        add("text/plain", "txt", "text", "log");
+        add("text/csv", "csv");
+        add("text/markdown", "md");
+        add("text/xml", "xml");
+        add("application/javascript", "js", "mjs");
+        add("application/json", "json", "map");
+        add("application/pdf", "pdf");
+        add("application/zip", "zip");
+        add("application/gzip", "gz", "tgz");
+        add("application/x-tar", "tar");
+        add("application/wasm", "wasm");
+        add("image/png", "png");
+        add("image/jpeg", "jpg", "jpeg");
+        add("image/gif", "gif");
+        add("image/svg+xml", "svg");
+        add("image/webp", "webp");
+        add("image/x-icon", "ico");
+        add("font/woff", "woff");
+        add("font/woff2", "woff2");
+        add("audio/mpeg", "mp3");
+        add("video/mp4", "mp4");
+        add("video/webm", "webm");
+    }
+
+    private MimeTypes() {
+    }
+
+    private static void add(String type, String... extensions) {
+        AsciiString value = AsciiString.cached(type);
+        for (String extension : extensions) {
+            BUILT_IN.put(extension, value);
+        }
+    }
+
+    /**
+     * 文件名对应的 Content-Type，无法识别时返回 application/octet-stream
+     */
+    public static AsciiString contentType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot == fileName.length() - 1) {
+            return OCTET_STREAM;
+        }
+        String extension = fileName.substring(dot + 1).toLowerCase();
+        AsciiString type = BUILT_IN.get(extension);
+        if (type != null) {
+            return type;
+        }
+        type = RESOLVED.get(extension);
+        if (type == null) {
+            type = AsciiString.cached(FALLBACK.getContentType(fileName));
+            if (RESOLVED.size() < MAX_CACHED_EXTENSIONS) {
+                RESOLVED.put(extension, type);
+            }
+        }
+        return type;
+    }
+
+}
@@ -0,0 +1,383 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.FileRegion;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 只读的打包文件，由 {@link PackFileWriter} 生成，把整个目录树的文件内容连续存放在一个文件里。
+ * 索引按路径排序并映射到内存，查找是二分查找，不访问文件系统；内容以同一个文件的 FileRegion 片段发送，
+ * 大量小文件从此不再需要逐个 stat 和 open。
+ * <p>
+ * 文件格式（大端）：
+ * <pre>
+ * 头部 48 字节：magic(4) version(4) 条目数(4) 保留(4) 条目表偏移(8) 路径区偏移(8) 路径区长度(8) 保留(8)
+ * 文件内容：依次存放
+ * 条目表：每项 40 字节，路径偏移(4) 路径长度(4) 内容偏移(8) 内容长度(8) 修改时间(8) CRC32(4) 保留(4)，按路径的 UTF-8 字节排序
+ * 路径区：相对路径的 UTF-8 字节，以 / 分隔，不以 / 开头
+ * </pre>
+ */
+public class PackFile implements Closeable {
+
+    static final int MAGIC = 0x4E4C504B; // NLPK
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 48;
+
+    static final int ENTRY_SIZE = 40;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    /**
+     * 条目表和路径区
+     */
+    private final MappedByteBuffer index;
+
+    private final int count;
+
+    /**
+     * 路径区在 index 中的起始位置
+     */
+    private final int namesStart;
+
+    /**
+     * 每个条目的校验信息，第一次请求时生成，之后不再格式化日期
+     */
+    private final AtomicReferenceArray<FileValidator> validators;
+
+    public PackFile(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // 继续读取
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a pack file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has unsupported pack version " + version);
+            }
+            count = header.getInt();
+            header.getInt();
+            long entriesOffset = header.getLong();
+            long namesOffset = header.getLong();
+            long namesLength = header.getLong();
+            long indexLength = namesOffset + namesLength - entriesOffset;
+            if (count < 0 || namesOffset != entriesOffset + (long) count * ENTRY_SIZE
+                    || entriesOffset < HEADER_SIZE || namesOffset + namesLength > channel.size()) {
+                throw new IOException(file + " has a corrupt pack index");
+            }
+            if (indexLength > Integer.MAX_VALUE) {
+                throw new IOException(file + " has a pack index larger than 2G");
+            }
+            this.index = channel.map(FileChannel.MapMode.READ_ONLY, entriesOffset, indexLength);
+            this.namesStart = (int) (namesOffset - entriesOffset);
+            this.validators = new AtomicReferenceArray<>(count);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * 按相对路径查找条目，只读取映射的索引
+     *
+     * @param path 以 / 分隔，不以 / 开头
+     * @return 不存在时返回 null
+     */
+    public Entry get(String path) {
+        byte[] key = path.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareName(mid * ENTRY_SIZE, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return entry(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 条目的路径和 key 按无符号字节比较，与打包时的排序一致
+     */
+    private int compareName(int entry, byte[] key) {
+        int offset = namesStart + index.getInt(entry);
+        int length = index.getInt(entry + 4);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (index.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    private Entry entry(int i) {
+        int entry = i * ENTRY_SIZE;
+        long length = index.getLong(entry + 16);
+        long lastModified = index.getLong(entry + 24);
+        FileValidator validator = validators.get(i);
+        if (validator == null) {
+            validator = FileValidator.forChecksum(index.getInt(entry + 32) & 0xffffffffL, length, lastModified);
+            validators.lazySet(i, validator);
+        }
+        return new Entry(index.getLong(entry + 8), length, lastModified, validator);
+    }
+
+    /**
+     * 打包文件中的一段内容，可以 sendfile 发送；所有片段共享同一个 FileChannel，释放时不关闭它
+     */
+    public FileRegion region(long offset, long length) {
+        return new PackRegion(channel, offset, length);
+    }
+
+    /**
+     * 打包文件中的一段内容，按块读取，用于不能 sendfile 的连接；关闭时不关闭共享的 FileChannel
+     */
+    public ChunkedInput<ByteBuf> chunkedInput(long offset, long length, int chunkSize) {
+        return new PackChunkedInput(channel, offset, length, chunkSize);
+    }
+
+    /**
+     * 服务器关闭时调用，之后不能再发送打包文件中的内容。
+     * 映射的索引不主动解除，关闭时可能还有请求在查找，留给 GC 回收
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 索引中的一个文件
+     */
+    public static class Entry {
+
+        private final long offset;
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final FileValidator validator;
+
+        Entry(long offset, long length, long lastModified, FileValidator validator) {
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.validator = validator;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * 由内容校验和生成的强 ETag，文件重新打包但内容不变时保持不变
+         */
+        public FileValidator getValidator() {
+            return validator;
+        }
+    }
+
+    private static class PackRegion extends AbstractReferenceCounted implements FileRegion {
+
+        private final FileChannel channel;
+
+        private final long position;
+
+        private final long count;
+
+        private long transferred;
+
+        PackRegion(FileChannel channel, long position, long count) {
+            this.channel = channel;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public long count() {
+            return count;
+        }
+
+        @Deprecated
+        @Override
+        public long transfered() {
+            return transferred;
+        }
+
+        @Override
+        public long transferred() {
+            return transferred;
+        }
+
+        @Override
+        public long transferTo(WritableByteChannel target, long position) throws IOException {
+            long remaining = count - position;
+            if (remaining < 0 || position < 0) {
+                throw new IllegalArgumentException("position out of range: " + position + " (expected: 0 - "
+                        + (count - 1) + ')');
+            }
+            if (remaining == 0) {
+                return 0L;
+            }
+            long written = channel.transferTo(this.position + position, remaining, target);
+            if (written > 0) {
+                transferred += written;
+            }
+            return written;
+        }
+
+        @Override
+        protected void deallocate() {
+            // FileChannel 由 PackFile 持有
+        }
+
+        @Override
+        public FileRegion retain() {
+            super.retain();
+            return this;
+        }
+
+        @Override
+        public FileRegion retain(int increment) {
+            super.retain(increment);
+            return this;
+        }
+
+        @Override
+        public FileRegion touch() {
+            return this;
+        }
+
+        @Override
+        public FileRegion touch(Object hint) {
+            return this;
+        }
+    }
+
+    private static class PackChunkedInput implements ChunkedInput<ByteBuf> {
+
+        private final FileChannel channel;
+
+        private final long startOffset;
+
+        private final long endOffset;
+
+        private final int chunkSize;
+
+        private long offset;
+
+        PackChunkedInput(FileChannel channel, long offset, long length, int chunkSize) {
+            this.channel = channel;
+            this.startOffset = offset;
+            this.endOffset = offset + length;
+            this.chunkSize = chunkSize;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return offset >= endOffset;
+        }
+
+        @Override
+        public void close() {
+            // FileChannel 由 PackFile 持有
+        }
+
+        @Deprecated
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+            if (offset >= endOffset) {
+                return null;
+            }
+            int size = (int) Math.min(chunkSize, endOffset - offset);
+            ByteBuf buf = allocator.buffer(size);
+            boolean release = true;
+            try {
+                int read = 0;
+                while (read < size) { // 按位置读取，不改变共享 FileChannel 的位置
+                    int n = buf.writeBytes(channel, offset + read, size - read);
+                    if (n < 0) {
+                        throw new IOException("unexpected end of pack file");
+                    }
+                    read += n;
+                }
+                offset += size;
+                release = false;
+                return buf;
+            } finally {
+                if (release) {
+                    buf.release();
+                }
+            }
+        }
+
+        @Override
+        public long length() {
+            return endOffset - startOffset;
+        }
+
+        @Override
+        public long progress() {
+            return offset - startOffset;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package cn.alone.demo.FileServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 把目录树打包成 {@link PackFile}，离线运行：
+ * java cn.alone.demo.FileServer.PackFileWriter 目录 打包文件
+ * 和目录列表一样跳过隐藏文件，预压缩的 .gz/.br 文件也一起打包。
+ * 先写到临时文件，完成后再替换目标文件
+ */
+public class PackFileWriter {
+
+    /**
+     * 每次复制文件内容的最大字节数
+     */
+    private static final long TRANSFER_SIZE = 8 * 1024 * 1024;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage : PackFileWriter <dir> <pack file>");
+            System.exit(1);
+        }
+        int count = write(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("packed " + count + " files into " + args[1]);
+    }
+
+    /**
+     * @return 打包的文件数
+     */
+    public static int write(final Path root, Path target) throws IOException {
+        final List<Item> items = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                return !dir.equals(root) && isHidden(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && !isHidden(file)) {
+                    StringBuilder name = new StringBuilder();
+                    for (Path part : root.relativize(file)) {
+                        if (name.length() > 0) {
+                            name.append('/');
+                        }
+                        name.append(part.toString());
+                    }
+                    items.add(new Item(file, name.toString().getBytes(StandardCharsets.UTF_8), attrs.size(),
+                            attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // 与 PackFile 查找时的比较方式一致
+        Collections.sort(items, new Comparator<Item>() {
+            @Override
+            public int compare(Item i1, Item i2) {
+                int n = Math.min(i1.name.length, i2.name.length);
+                for (int i = 0; i < n; i++) {
+                    int cmp = (i1.name[i] & 0xff) - (i2.name[i] & 0xff);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return i1.name.length - i2.name.length;
+            }
+        });
+
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.position(PackFile.HEADER_SIZE);
+            for (Item item : items) {
+                copy(item, out);
+            }
+            long entriesOffset = out.position();
+            ByteBuffer entries = ByteBuffer.allocate(PackFile.ENTRY_SIZE);
+            int nameOffset = 0;
+            for (Item item : items) {
+                entries.clear();
+                entries.putInt(nameOffset).putInt(item.name.length).putLong(item.offset).putLong(item.length)
+                        .putLong(item.lastModified).putInt((int) item.crc32).putInt(0);
+                entries.flip();
+                writeFully(out, entries);
+                nameOffset += item.name.length;
+                if (nameOffset < 0) {
+                    throw new IOException("too many file names to pack");
+                }
+            }
+            long namesOffset = out.position();
+            for (Item item : items) {
+                writeFully(out, ByteBuffer.wrap(item.name));
+            }
+            ByteBuffer header = ByteBuffer.allocate(PackFile.HEADER_SIZE);
+            header.putInt(PackFile.MAGIC).putInt(PackFile.VERSION).putInt(items.size()).putInt(0)
+                    .putLong(entriesOffset).putLong(namesOffset).putLong(out.position() - namesOffset).putLong(0);
+            header.flip();
+            out.position(0);
+            writeFully(out, header);
+            out.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return items.size();
+    }
+
+    private static boolean isHidden(Path path) throws IOException {
+        return path.getFileName().toString().startsWith(".") || Files.isHidden(path);
+    }
+
+    /**
+     * 复制文件内容并计算 CRC32，长度以实际读到的为准，打包过程中文件被修改时只会得到一致的某个版本
+     */
+    private static void copy(Item item, FileChannel out) throws IOException {
+        item.offset = out.position();
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel in = FileChannel.open(item.file, StandardOpenOption.READ)) {
+            long copied = 0;
+            while (copied < item.length) {
+                long n = in.transferTo(copied, Math.min(TRANSFER_SIZE, item.length - copied), out);
+                if (n <= 0) {
+                    break; // 文件被截断
+                }
+                copied += n;
+            }
+            item.length = copied;
+        }
+        // 从包中读回计算校验和，和发送的内容一致
+        long position = item.offset;
+        long end = item.offset + item.length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = out.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("unexpected end of pack file");
+            }
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            position += n;
+        }
+        item.crc32 = crc.getValue();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static class Item {
+
+        private final Path file;
+
+        private final byte[] name;
+
+        private final long lastModified;
+
+        private long length;
+
+        private long offset;
+
+        private long crc32;
+
+        Item(Path file, byte[] name, long length, long lastModified) {
+            this.file = file;
+            this.name = name;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+}
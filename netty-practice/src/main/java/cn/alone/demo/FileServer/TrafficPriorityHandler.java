@@ -0,0 +1,74 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayDeque;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 按请求路径确定响应的优先级，放在整形器后面（出站方向之前）。
+ * 写出 interactive 响应时设置线程标记，整形器在同一次调用中按 0 字节计算。
+ * 管线化的请求按顺序响应，所以用队列把响应和请求对应起来
+ */
+public class TrafficPriorityHandler extends ChannelDuplexHandler {
+
+    private static final FastThreadLocal<Boolean> INTERACTIVE_WRITE = new FastThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
+    private final TrafficShaping shaping;
+
+    /**
+     * 已经收到但响应还没有写完的请求是否是 interactive
+     */
+    private final ArrayDeque<Boolean> pending = new ArrayDeque<>();
+
+    public TrafficPriorityHandler(TrafficShaping shaping) {
+        this.shaping = shaping;
+    }
+
+    /**
+     * 当前线程正在写出的是否是 interactive 响应，只在整形器的 write 中有意义
+     */
+    static boolean isInteractiveWrite() {
+        return INTERACTIVE_WRITE.get();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            pending.add(shaping.isInteractive(new QueryStringDecoder(((HttpRequest) msg).uri()).path()));
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        Boolean interactive = pending.peek();
+        if (msg instanceof LastHttpContent && (!(msg instanceof HttpResponse)
+                || ((HttpResponse) msg).status().code() >= 200)) { // 100 Continue 之后还有最终响应
+            pending.poll();
+        }
+        if (interactive == null || !interactive) {
+            ctx.write(msg, promise);
+            return;
+        }
+        INTERACTIVE_WRITE.set(Boolean.TRUE);
+        try {
+            ctx.write(msg, promise);
+        } finally {
+            INTERACTIVE_WRITE.set(Boolean.FALSE);
+        }
+    }
+
+}
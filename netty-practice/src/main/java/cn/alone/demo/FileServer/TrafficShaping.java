@@ -0,0 +1,236 @@
+package cn.alone.demo.FileServer;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.traffic.GlobalChannelTrafficShapingHandler;
+import io.netty.handler.traffic.GlobalTrafficShapingHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 发送带宽整形：全局、每个连接、每个客户端 IP 三级限速，单位字节每秒，0 表示不限制。
+ * 按路径前缀把请求分成 interactive 和 bulk 两类，只有 bulk 请求的响应计入限速，
+ * interactive 请求（页面、脚本等小文件）不排在大文件后面等待带宽。
+ * 规则格式为 前缀=类别，多条规则用 ; 分隔，最长的前缀优先，没有匹配时是 bulk，例如
+ * /static/=interactive;/static/video/=bulk
+ */
+public class TrafficShaping implements Closeable {
+
+    private static final String INTERACTIVE = "interactive";
+
+    private static final String BULK = "bulk";
+
+    /**
+     * 每个连接在整形器中排队的数据超过这个大小时设置为不可写，ChunkedWriteHandler 随之暂停读取文件。
+     * Netty 默认是 4M，会把限速中的大文件大段读进内存
+     */
+    private static final long MAX_QUEUED_BYTES = 256 * 1024;
+
+    private final long channelWriteLimit;
+
+    private final long addressWriteLimit;
+
+    private final long checkIntervalMillis;
+
+    /**
+     * 前缀和是否 interactive，按前缀长度降序排列
+     */
+    private final List<Rule> rules;
+
+    /**
+     * 统计周期的定时任务
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * 全局和每个连接的限速，为空表示都不限制
+     */
+    private final GlobalChannelTrafficShapingHandler globalHandler;
+
+    /**
+     * 每个客户端 IP 的限速，所有连接都断开后删除
+     */
+    private final Map<InetAddress, AddressShaping> addressHandlers = new HashMap<>();
+
+    public TrafficShaping(long globalWriteLimit, long channelWriteLimit, long addressWriteLimit,
+                          long checkIntervalMillis, String priorityRules) {
+        this.channelWriteLimit = channelWriteLimit;
+        this.addressWriteLimit = addressWriteLimit;
+        this.checkIntervalMillis = checkIntervalMillis;
+        this.rules = parseRules(priorityRules);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("file-traffic", true));
+        if (globalWriteLimit > 0 || channelWriteLimit > 0) {
+            globalHandler = new PriorityGlobalChannelTrafficShapingHandler(executor, globalWriteLimit,
+                    channelWriteLimit, checkIntervalMillis);
+            globalHandler.setMaxWriteSize(MAX_QUEUED_BYTES);
+        } else {
+            globalHandler = null;
+        }
+    }
+
+    private static List<Rule> parseRules(String spec) {
+        List<Rule> rules = new ArrayList<>();
+        if (spec != null) {
+            for (String rule : spec.split(";")) {
+                int eq = rule.indexOf('=');
+                if (eq <= 0) {
+                    if (!rule.trim().isEmpty()) {
+                        throw new IllegalArgumentException("invalid traffic priority rule : " + rule);
+                    }
+                    continue;
+                }
+                String priority = rule.substring(eq + 1).trim();
+                if (!priority.equals(INTERACTIVE) && !priority.equals(BULK)) {
+                    throw new IllegalArgumentException("invalid traffic priority rule : " + rule);
+                }
+                rules.add(new Rule(rule.substring(0, eq).trim(), priority.equals(INTERACTIVE)));
+            }
+        }
+        Collections.sort(rules, new Comparator<Rule>() {
+            @Override
+            public int compare(Rule r1, Rule r2) {
+                return r2.prefix.length() - r1.prefix.length();
+            }
+        });
+        return rules;
+    }
+
+    /**
+     * 路径对应的请求是否不受限速
+     */
+    public boolean isInteractive(String path) {
+        for (Rule rule : rules) {
+            if (path.startsWith(rule.prefix)) {
+                return rule.interactive;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 所有连接共享的全局和每个连接的整形器
+     *
+     * @return 没有配置全局和连接限速时返回 null
+     */
+    public ChannelHandler getGlobalHandler() {
+        return globalHandler;
+    }
+
+    /**
+     * HTTP/2 连接的整形器，由这个连接的所有流共享。整形器加在流上，全局整形器的每个连接限速只能按流计算，
+     * 这里再按连接合计，多个并发流加起来也不超过每个连接的限速。连接关闭时调用方负责 release
+     *
+     * @return 没有配置每个连接的限速时返回 null
+     */
+    public GlobalTrafficShapingHandler newConnectionHandler() {
+        if (channelWriteLimit <= 0) {
+            return null;
+        }
+        GlobalTrafficShapingHandler handler = new PriorityGlobalTrafficShapingHandler(executor, channelWriteLimit,
+                checkIntervalMillis);
+        handler.setMaxWriteSize(MAX_QUEUED_BYTES);
+        return handler;
+    }
+
+    /**
+     * 客户端 IP 的整形器，同一个 IP 的所有连接共享，每次获取都要在连接关闭时调用 {@link #releaseAddressHandler}
+     *
+     * @return 没有配置 IP 限速时返回 null
+     */
+    public synchronized ChannelHandler acquireAddressHandler(InetAddress address) {
+        if (addressWriteLimit <= 0) {
+            return null;
+        }
+        AddressShaping shaping = addressHandlers.get(address);
+        if (shaping == null) {
+            shaping = new AddressShaping(new PriorityGlobalTrafficShapingHandler(executor, addressWriteLimit,
+                    checkIntervalMillis));
+            shaping.handler.setMaxWriteSize(MAX_QUEUED_BYTES);
+            addressHandlers.put(address, shaping);
+        }
+        shaping.connections++;
+        return shaping.handler;
+    }
+
+    public synchronized void releaseAddressHandler(InetAddress address) {
+        AddressShaping shaping = addressHandlers.get(address);
+        if (shaping != null && --shaping.connections == 0) {
+            addressHandlers.remove(address);
+            shaping.handler.release(); // 停止统计任务
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (globalHandler != null) {
+            globalHandler.release();
+        }
+        for (AddressShaping shaping : addressHandlers.values()) {
+            shaping.handler.release();
+        }
+        addressHandlers.clear();
+        executor.shutdown();
+    }
+
+    private static class Rule {
+
+        private final String prefix;
+
+        private final boolean interactive;
+
+        Rule(String prefix, boolean interactive) {
+            this.prefix = prefix;
+            this.interactive = interactive;
+        }
+    }
+
+    private static class AddressShaping {
+
+        private final GlobalTrafficShapingHandler handler;
+
+        private int connections;
+
+        AddressShaping(GlobalTrafficShapingHandler handler) {
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * interactive 请求的响应按 0 字节计算，不等待也不占用额度，但仍然排在同一连接已经排队的数据后面，保证顺序
+     */
+    private static class PriorityGlobalChannelTrafficShapingHandler extends GlobalChannelTrafficShapingHandler {
+
+        PriorityGlobalChannelTrafficShapingHandler(ScheduledExecutorService executor, long writeGlobalLimit,
+                                                   long writeChannelLimit, long checkInterval) {
+            super(executor, writeGlobalLimit, 0, writeChannelLimit, 0, checkInterval);
+        }
+
+        @Override
+        protected long calculateSize(Object msg) {
+            return TrafficPriorityHandler.isInteractiveWrite() ? 0 : super.calculateSize(msg);
+        }
+    }
+
+    private static class PriorityGlobalTrafficShapingHandler extends GlobalTrafficShapingHandler {
+
+        PriorityGlobalTrafficShapingHandler(ScheduledExecutorService executor, long writeLimit, long checkInterval) {
+            super(executor, writeLimit, 0, checkInterval);
+        }
+
+        @Override
+        protected long calculateSize(Object msg) {
+            return TrafficPriorityHandler.isInteractiveWrite() ? 0 : super.calculateSize(msg);
+        }
+    }
+
+}
@@ -1,104 +1,216 @@
 package cn.alone.demo.ScalableIOInJava;
 
+import cn.alone.demo.nio.OptimizedSelector;
+
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by RojerAlone on 2018-04-11
  * Scalable IO in Java
  * http://gee.cs.oswego.edu/dl/cpjslides/nio.pdf
+ * <p>
+ * Multiple Reactors：mainReactor 只负责 accept，连接轮流分配给 subReactor，每个 subReactor 一个线程一个 selector；
+ * process() 在工作线程池中执行，结果交回连接所属的 subReactor 发送。
+ * selector 都是 {@link OptimizedSelector}：就绪的 key 保存在数组中，空轮询时自动重建
  */
 class Reactor implements Runnable {
 
-    final Selector selector;
+    final OptimizedSelector selector;
     final ServerSocketChannel serverSocket;
+    final SubReactor[] subReactors;
+    final ExecutorService pool;
+    int next = 0;
 
     Reactor(int port) throws IOException {
-        selector = Selector.open();
+        this(port, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+    }
+
+    Reactor(int port, int subReactorCount, int workerCount) throws IOException {
+        selector = new OptimizedSelector();
         serverSocket = ServerSocketChannel.open();
         serverSocket.socket().bind(new InetSocketAddress(port));
         serverSocket.configureBlocking(false);
-        SelectionKey sk = serverSocket.register(selector, SelectionKey.OP_ACCEPT);
-        sk.attach(new Acceptor());
+        selector.register(serverSocket, SelectionKey.OP_ACCEPT, new Acceptor());
+        subReactors = new SubReactor[subReactorCount];
+        for (int i = 0; i < subReactorCount; i++) {
+            subReactors[i] = new SubReactor();
+        }
+        pool = Executors.newFixedThreadPool(workerCount);
     }
 
     @Override
     public void run() {
+        Thread[] threads = new Thread[subReactors.length];
+        for (int i = 0; i < subReactors.length; i++) {
+            threads[i] = new Thread(subReactors[i], "sub-reactor-" + i);
+            threads[i].start();
+        }
         try {
             while (!Thread.interrupted()) {
-                selector.select();
-                Set selected = selector.selectedKeys();
-                Iterator it = selected.iterator();
-                while (it.hasNext()) {
-                    dispatch((SelectionKey) it.next());
-                }
-                selected.clear();
+                selector.select(0);
+                selector.processSelectedKeys(DISPATCHER);
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(serverSocket);
+            closeQuietly(selector.selector());
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            pool.shutdown();
         }
     }
 
-    private void dispatch(SelectionKey k) {
-        Runnable r = (Runnable) k.attachment();
-        if (r != null) {
-            r.run();
+    private static final OptimizedSelector.KeyHandler DISPATCHER = new OptimizedSelector.KeyHandler() {
+        @Override
+        public void handle(SelectionKey k) {
+            Runnable r = (Runnable) k.attachment();
+            if (r != null) {
+                r.run();
+            }
         }
-    }
+    };
 
     class Acceptor implements Runnable {
 
         @Override
         public void run() {
             try {
-                SocketChannel c = serverSocket.accept();
+                final SocketChannel c = serverSocket.accept();
                 if (c != null) {
-                    new Handler(selector, c);
+                    final SubReactor sub = subReactors[next];
+                    if (++next == subReactors.length) {
+                        next = 0;
+                    }
+                    // 在 subReactor 的线程中注册，register 不会和 select 争用 selector 的锁
+                    sub.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                new Handler(sub, c);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                                closeQuietly(c);
+                            }
+                        }
+                    });
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 一个线程一个 selector，处理分配给它的连接的读写，以及其他线程交过来的任务
+     */
+    static final class SubReactor implements Runnable {
+
+        final OptimizedSelector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        SubReactor() throws IOException {
+            selector = new OptimizedSelector();
+        }
+
+        /**
+         * 可以在任意线程调用，任务在这个 subReactor 的线程中执行
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    selector.select(0);
+                    selector.processSelectedKeys(DISPATCHER);
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
                 }
             } catch (IOException e) {
                 e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.selector().keys()) {
+                    closeQuietly(key.channel());
+                }
+                closeQuietly(selector.selector());
             }
         }
     }
 
+    /**
+     * 按行回显：读到换行符时在工作线程中处理，处理完交回 subReactor 发送，发送完继续读下一行
+     */
     final class Handler implements Runnable {
 
         private static final int MAXIN = 1024;
         private static final int MAXOUT = 1024;
 
+        final SubReactor owner;
         final SocketChannel socket;
-        final SelectionKey sk;
         ByteBuffer input = ByteBuffer.allocate(MAXIN);
         ByteBuffer output = ByteBuffer.allocate(MAXOUT);
-        static final int READING = 0, SENDING = 1;
+        static final int READING = 0, PROCESSING = 1, SENDING = 2;
         int state = READING;
 
-        Handler(Selector sel, SocketChannel c) throws IOException {
+        Handler(SubReactor owner, SocketChannel c) throws IOException {
+            this.owner = owner;
             socket = c;
             c.configureBlocking(false);
-            sk = socket.register(sel, 0);
-            sk.attach(this);
-            sk.interestOps(SelectionKey.OP_READ);
-            sel.wakeup();
+            owner.selector.register(socket, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * selector 重建后 key 会变化，每次都从 channel 获取
+         */
+        SelectionKey key() {
+            return socket.keyFor(owner.selector.selector());
         }
 
         boolean inputIsComplete() {
+            for (int i = 0; i < input.position(); i++) {
+                if (input.get(i) == '\n') {
+                    return true;
+                }
+            }
             return false;
         }
 
         boolean outputIsComplete() {
-            return false;
+            return !output.hasRemaining();
         }
 
+        /**
+         * 在工作线程中执行，这期间连接不关注任何事件，selector 线程不会访问 input 和 output
+         */
         void process() {
-
+            input.flip();
+            output.clear();
+            while (input.hasRemaining()) {
+                byte b = input.get();
+                output.put(b);
+                if (b == '\n') {
+                    break;
+                }
+            }
+            input.compact();
+            output.flip();
         }
 
         @Override
@@ -108,24 +220,76 @@ class Reactor implements Runnable {
                 else if (state == SENDING) send();
             } catch (IOException ex) {
                 ex.printStackTrace();
+                close();
             }
         }
 
         void read() throws IOException {
-            socket.read(input);
+            if (socket.read(input) < 0) {
+                close();
+                return;
+            }
             if (inputIsComplete()) {
-                process();
-                state = SENDING;
-                // Normally also do first write now
-                sk.interestOps(SelectionKey.OP_WRITE);
+                startProcessing();
+            } else if (!input.hasRemaining()) { // 一行超过了缓冲区
+                close();
             }
         }
 
+        void startProcessing() {
+            state = PROCESSING;
+            key().interestOps(0);
+            pool.execute(new Processer());
+        }
+
         void send() throws IOException {
             socket.write(output);
             if (outputIsComplete()) {
-                sk.cancel();
+                if (inputIsComplete()) { // 已经读到的下一行
+                    startProcessing();
+                } else {
+                    state = READING;
+                    key().interestOps(SelectionKey.OP_READ);
+                }
             }
         }
+
+        void close() {
+            closeQuietly(socket); // 关闭 channel 时会取消它的 key
+        }
+
+        class Processer implements Runnable {
+
+            @Override
+            public void run() {
+                process();
+                owner.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!socket.isOpen()) {
+                            return;
+                        }
+                        state = SENDING;
+                        try {
+                            send(); // 先直接写，写不完再关注 OP_WRITE
+                            if (state == SENDING) {
+                                key().interestOps(SelectionKey.OP_WRITE);
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            close();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
     }
 }
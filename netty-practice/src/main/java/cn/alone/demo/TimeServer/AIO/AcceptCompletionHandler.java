@@ -1,6 +1,5 @@
 package cn.alone.demo.TimeServer.AIO;
 
-import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
 
@@ -11,8 +10,7 @@ public class AcceptCompletionHandler implements CompletionHandler<AsynchronousSo
     @Override
     public void completed(AsynchronousSocketChannel result, AsyncTimeServerHandler attachment) {
         attachment.asynchronousServerSocketChannel.accept(attachment, this);
-        ByteBuffer buffer = ByteBuffer.allocate(1024);
-        result.read(buffer, buffer, new ReadCompletionHandler(result));
+        new ReadCompletionHandler(result).start(); // 读缓冲区由连接自己持有，循环读取
     }
 
     @Override
@@ -30,7 +30,7 @@ public class AsyncTimeClientHandler implements CompletionHandler<Void, AsyncTime
 
     @Override
     public void completed(Void result, AsyncTimeClientHandler attachment) {
-        byte[] req = "QUERY TIME ORDER".getBytes();
+        byte[] req = ("QUERY TIME ORDER" + System.getProperty("line.separator")).getBytes(); // 服务端按行拆分请求
         ByteBuffer writeBuffer = ByteBuffer.allocate(req.length);
         writeBuffer.put(req);
         writeBuffer.flip();
@@ -50,7 +50,7 @@ public class AsyncTimeClientHandler implements CompletionHandler<Void, AsyncTime
                             String body;
                             try {
                                 body = new String(bytes, "UTF-8");
-                                System.out.println("Now is : " + body);
+                                System.out.println("Now is : " + body.trim());
                                 latch.countDown();
                             } catch (UnsupportedEncodingException e) {
                                 e.printStackTrace();
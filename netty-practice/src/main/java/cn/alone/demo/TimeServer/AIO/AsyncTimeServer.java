@@ -7,8 +7,12 @@ public class AsyncTimeServer {
 
     private static final int PORT = 9090;
 
+    /**
+     * @param args 可选的线程数，默认为 CPU 核数
+     */
     public static void main(String[] args) {
-        AsyncTimeServerHandler timeServer = new AsyncTimeServerHandler(PORT);
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        AsyncTimeServerHandler timeServer = new AsyncTimeServerHandler(PORT, threads);
         new Thread(timeServer, "AIO-AsyncTimeServerHandler-001").start();
     }
 
@@ -2,8 +2,11 @@ package cn.alone.demo.TimeServer.AIO;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousServerSocketChannel;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by RojerAlone on 2017-08-14.
@@ -14,12 +17,28 @@ public class AsyncTimeServerHandler implements Runnable{
 
     CountDownLatch latch;
 
+    /**
+     * 执行 I/O 和回调的固定线程池，不使用 JVM 默认的可扩容线程组
+     */
+    private AsynchronousChannelGroup channelGroup;
+
     AsynchronousServerSocketChannel asynchronousServerSocketChannel;
 
     public AsyncTimeServerHandler(int port) {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public AsyncTimeServerHandler(int port, int threads) {
         this.port = port;
         try {
-            asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open();
+            final AtomicInteger index = new AtomicInteger();
+            channelGroup = AsynchronousChannelGroup.withFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "AIO-TimeServer-" + index.incrementAndGet());
+                }
+            });
+            asynchronousServerSocketChannel = AsynchronousServerSocketChannel.open(channelGroup);
             asynchronousServerSocketChannel.bind(new InetSocketAddress(port));
             System.out.println("The time server is start in port : " + port);
         } catch (IOException e) {
@@ -35,6 +54,7 @@ public class AsyncTimeServerHandler implements Runnable{
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        channelGroup.shutdown();
     }
 
     public void doAccept() {
@@ -1,72 +1,159 @@
 package cn.alone.demo.TimeServer.AIO;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 /**
  * Created by RojerAlone on 2017-08-14.
+ * 一个连接的读写循环：按换行符拆分请求（和 LineBasedFrameDecoder 一致，\r\n 或 \n，一行最长 1024 字节），
+ * 一次读到的所有完整请求的响应写入同一个缓冲区一起发送，发送完再继续处理剩下的请求和读取。
+ * 同一时刻最多只有一个读或写在进行，读写缓冲区跟随连接复用，不为每个请求分配
  */
 public class ReadCompletionHandler implements CompletionHandler<Integer, ByteBuffer> {
 
+    private static final byte[] QUERY_TIME_ORDER = "QUERY TIME ORDER".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] BAD_ORDER = "BAD ORDER".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int MAX_LINE_LENGTH = 1024;
+
+    private static final int WRITE_BUFFER_SIZE = 4096;
+
+    /**
+     * 单个响应的最大长度（含换行符），写缓冲区剩余空间不足时先发送
+     */
+    private static final int MAX_RESPONSE_LENGTH = 64;
+
+    /**
+     * 当前时间的编码结果，所有连接共享，每秒只生成一次
+     */
+    private static volatile CachedTime cachedTime = new CachedTime(-1, null);
+
     private AsynchronousSocketChannel channel;
 
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    private final CompletionHandler<Integer, ByteBuffer> writeHandler = new CompletionHandler<Integer, ByteBuffer>() {
+        @Override
+        public void completed(Integer result, ByteBuffer buffer) {
+            if (buffer.hasRemaining()) { // 如果没有发送完成，继续发送
+                channel.write(buffer, buffer, this);
+                return;
+            }
+            buffer.clear();
+            processInput(); // 读缓冲区中可能还有没处理的请求
+        }
+
+        @Override
+        public void failed(Throwable exc, ByteBuffer attachment) {
+            close();
+        }
+    };
+
     public ReadCompletionHandler(AsynchronousSocketChannel channel) {
         if (this.channel == null) {
             this.channel = channel;
         }
     }
 
+    /**
+     * 开始读取，之后读写交替进行直到连接关闭
+     */
+    public void start() {
+        channel.read(readBuffer, readBuffer, this);
+    }
+
     @Override
     public void completed(Integer result, ByteBuffer attachment) {
-        attachment.flip();
-        byte[] body = new byte[attachment.remaining()];
-        attachment.get(body);
-        try {
-            String req = new String(body, "UTF-8");
-            System.out.println("The time server receive order : " + req);
-            String currentTime = "QUERY TIME ORDER".equalsIgnoreCase(req) ? new Date().toString() : "BAD ORDER";
-            doWrite(currentTime);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+        if (result < 0) { // 对端链路关闭
+            close();
+            return;
         }
+        processInput();
     }
 
     @Override
     public void failed(Throwable exc, ByteBuffer attachment) {
+        close();
+    }
+
+    /**
+     * 处理读缓冲区中的完整请求，响应积累到写缓冲区；有响应时发送，否则继续读取
+     */
+    private void processInput() {
+        readBuffer.flip();
+        int start = readBuffer.position();
+        for (int i = start; i < readBuffer.limit() && writeBuffer.remaining() >= MAX_RESPONSE_LENGTH; i++) {
+            if (readBuffer.get(i) == '\n') {
+                int end = i > start && readBuffer.get(i - 1) == '\r' ? i - 1 : i;
+                writeBuffer.put(isQueryTimeOrder(start, end) ? currentTime() : BAD_ORDER).put((byte) '\n');
+                start = i + 1;
+            }
+        }
+        readBuffer.position(start);
+        readBuffer.compact();
+        if (writeBuffer.position() > 0) {
+            writeBuffer.flip();
+            channel.write(writeBuffer, writeBuffer, writeHandler);
+        } else if (!readBuffer.hasRemaining()) { // 一行超过最大长度
+            close();
+        } else {
+            channel.read(readBuffer, readBuffer, this);
+        }
+    }
+
+    /**
+     * 不解码成字符串，直接按字节忽略大小写比较
+     */
+    private boolean isQueryTimeOrder(int start, int end) {
+        if (end - start != QUERY_TIME_ORDER.length) {
+            return false;
+        }
+        for (int i = 0; i < QUERY_TIME_ORDER.length; i++) {
+            byte b = readBuffer.get(start + i);
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != QUERY_TIME_ORDER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] currentTime() {
+        long now = System.currentTimeMillis();
+        CachedTime time = cachedTime;
+        if (time.second != now / 1000) {
+            time = new CachedTime(now / 1000, new Date(now).toString().getBytes(StandardCharsets.US_ASCII));
+            cachedTime = time;
+        }
+        return time.bytes;
+    }
+
+    private void close() {
         try {
-            this.channel.close();
+            channel.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            // ignore
         }
     }
 
-    private void doWrite(String currentTime) {
-        if (currentTime != null && currentTime.trim().length() > 0) {
-            byte[] bytes = currentTime.getBytes();
-            ByteBuffer writeBuffer = ByteBuffer.allocate(bytes.length);
-            writeBuffer.put(bytes);
-            writeBuffer.flip();
-            channel.write(writeBuffer, writeBuffer, new CompletionHandler<Integer, ByteBuffer>() {
-                @Override
-                public void completed(Integer result, ByteBuffer buffer) {
-                    if (buffer.hasRemaining()) { // 如果没有发送完成，继续发送
-                        channel.write(buffer, buffer, this);
-                    }
-                }
-
-                @Override
-                public void failed(Throwable exc, ByteBuffer attachment) {
-                    try {
-                        channel.close();
-                    } catch (IOException e) {
-                        // ignore
-                    }
-                }
-            });
+    private static class CachedTime {
+
+        private final long second;
+
+        private final byte[] bytes;
+
+        CachedTime(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
         }
     }
 }
@@ -0,0 +1,52 @@
+package cn.alone.demo.TimeServer.NIO;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 固定大小的 ByteBuffer 池，只在 selector 线程中使用，不需要同步。
+ * 连接关闭或者数据写完后归还，之后的连接直接复用，稳定运行时不再分配缓冲区
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    /**
+     * 最多保留的空闲缓冲区，连接数回落后多出的交给 GC
+     */
+    private final int maxPooled;
+
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    public BufferPool(int bufferSize, boolean direct, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * @return 已清空的缓冲区
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            buffer.clear();
+            free.push(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+}
@@ -1,34 +1,80 @@
 package cn.alone.demo.TimeServer.NIO;
 
+import cn.alone.demo.nio.OptimizedSelector;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Date;
-import java.util.Iterator;
-import java.util.Set;
 
 /**
  * Created by RojerAlone on 2017-08-14.
  */
 public class MultiplexerTimeServer implements Runnable {
 
-    private Selector selector;
+    private static final byte[] QUERY_TIME_ORDER = "QUERY TIME ORDER".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] BAD_ORDER = "BAD ORDER".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int BUFFER_SIZE = 1024;
+
+    /**
+     * 每个连接待发送的缓冲区达到这个数时暂停读取，客户端只发不收时不会无限占用内存
+     */
+    private static final int MAX_PENDING_WRITES = 16;
+
+    /**
+     * 数组保存就绪的 key，空轮询时自动重建
+     */
+    private OptimizedSelector selector;
 
     private ServerSocketChannel serverSocketChannel;
 
+    /**
+     * 读写缓冲区都从这里获取，用完归还
+     */
+    private final BufferPool bufferPool;
+
+    /**
+     * 当前时间的编码结果，每秒只生成一次
+     */
+    private long timeSecond = -1;
+
+    private byte[] timeBytes;
+
     private volatile boolean stop;
 
+    private final OptimizedSelector.KeyHandler keyHandler = new OptimizedSelector.KeyHandler() {
+        @Override
+        public void handle(SelectionKey key) {
+            try {
+                handleInput(key);
+            } catch (IOException e) {
+                close(key);
+            }
+        }
+    };
+
     public MultiplexerTimeServer(int port) {
+        this(port, false);
+    }
+
+    /**
+     * @param directBuffer 是否使用堆外缓冲区，读写时不需要在堆内外之间复制
+     */
+    public MultiplexerTimeServer(int port, boolean directBuffer) {
+        bufferPool = new BufferPool(BUFFER_SIZE, directBuffer, 1024);
         try {
-            selector = Selector.open();
+            selector = new OptimizedSelector();
             serverSocketChannel = ServerSocketChannel.open();
             serverSocketChannel.configureBlocking(false); // 设置为 not blocking
             serverSocketChannel.socket().bind(new InetSocketAddress(port), 1024);
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT); // 设置多路选择器作用是监听连接请求
+            selector.register(serverSocketChannel, SelectionKey.OP_ACCEPT, null); // 设置多路选择器作用是监听连接请求
             System.out.println("The time server is start in port : " + port);
         } catch (IOException e) {
             e.printStackTrace();
@@ -41,26 +87,15 @@ public class MultiplexerTimeServer implements Runnable {
     }
 
     public void run() {
+        int rebuilds = 0;
         while (!stop) {
             try {
                 selector.select(1000); // 设置每隔一秒 selector 被唤醒一次
-                Set<SelectionKey> selectionKeys = selector.selectedKeys();
-                Iterator<SelectionKey> it = selectionKeys.iterator();
-                SelectionKey key = null;
-                while (it.hasNext()) {
-                    key = it.next();
-                    it.remove();
-                    try {
-                        handleInput(key);
-                    } catch (IOException e) {
-                        if (key != null) {
-                            key.cancel();
-                            if (key.channel() != null) {
-                                key.channel().close();
-                            }
-                        }
-                    }
+                if (selector.getRebuilds() != rebuilds) {
+                    rebuilds = selector.getRebuilds();
+                    System.out.println("The selector is rebuilt because of premature returns, total : " + rebuilds);
                 }
+                selector.processSelectedKeys(keyHandler);
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -84,42 +119,149 @@ public class MultiplexerTimeServer implements Runnable {
                 // 接受新的连接
                 ServerSocketChannel ssc = (ServerSocketChannel) key.channel();
                 SocketChannel sc = ssc.accept();
+                if (sc == null) {
+                    return;
+                }
                 sc.configureBlocking(false);
-                // 将新的连接加入到多路复用器中
-                sc.register(selector, SelectionKey.OP_READ);
+                // 将新的连接加入到多路复用器中，读缓冲区跟随连接复用
+                selector.register(sc, SelectionKey.OP_READ, new Connection(bufferPool.acquire()));
+                return;
             }
             if (key.isReadable()) { // 如果可以读取数据的话  读取数据
                 SocketChannel sc = (SocketChannel) key.channel();
-                ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+                ByteBuffer readBuffer = ((Connection) key.attachment()).readBuffer;
                 int readBytes = sc.read(readBuffer);
                 if (readBytes > 0) {
                     readBuffer.flip();
-                    byte[] bytes = new byte[readBuffer.remaining()];
-                    readBuffer.get(bytes);
-                    String body = new String(bytes, "UTF-8");
-                    System.out.println("The time server receive order : " + body);
-                    String currentTime = "QUERY TIME ORDER".equalsIgnoreCase(body) ? new Date().toString() : "BAD ORDER";
-                    doWrite(sc, currentTime);
+                    byte[] response = isQueryTimeOrder(readBuffer) ? currentTime() : BAD_ORDER;
+                    readBuffer.clear();
+                    doWrite(key, response);
                 } else if (readBytes < 0) { // 对端链路关闭
-                    key.cancel();
-                    sc.close();
+                    close(key);
+                    return;
                 } else {
                     ; // 读到 0 字节，忽略
                 }
             }
+            if (key.isValid() && key.isWritable()) { // 上次没有写完，发送缓冲区有空间了
+                flush(key);
+            }
         }
     }
 
     /**
-     * 返回信息给客户端
+     * 不解码成字符串，直接按字节忽略大小写比较
      */
-    private void doWrite(SocketChannel channel, String response) throws IOException {
-        if (response != null && response.trim().length() > 0) {
-            byte[] bytes = response.getBytes();
-            ByteBuffer writeBuffer = ByteBuffer.allocate(bytes.length);
-            writeBuffer.put(bytes);
+    private static boolean isQueryTimeOrder(ByteBuffer buffer) {
+        if (buffer.remaining() != QUERY_TIME_ORDER.length) {
+            return false;
+        }
+        for (int i = 0; i < QUERY_TIME_ORDER.length; i++) {
+            byte b = buffer.get(buffer.position() + i);
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != QUERY_TIME_ORDER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] currentTime() {
+        long now = System.currentTimeMillis();
+        if (now / 1000 != timeSecond) {
+            timeSecond = now / 1000;
+            timeBytes = new Date(now).toString().getBytes(StandardCharsets.US_ASCII);
+        }
+        return timeBytes;
+    }
+
+    /**
+     * 返回信息给客户端，放入连接的发送队列；队列原来为空时直接写，写不完的部分等 OP_WRITE
+     */
+    private void doWrite(SelectionKey key, byte[] response) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        boolean idle = connection.pending.isEmpty();
+        for (int offset = 0; offset < response.length; ) {
+            ByteBuffer writeBuffer = bufferPool.acquire();
+            int length = Math.min(writeBuffer.remaining(), response.length - offset);
+            writeBuffer.put(response, offset, length);
             writeBuffer.flip();
-            channel.write(writeBuffer); // 这里忽略了写半包的场景
+            connection.pending.add(writeBuffer);
+            offset += length;
+        }
+        if (idle) { // 前面没有排队的数据，直接写
+            flush(key);
+        } else {
+            updateInterestOps(key, connection);
+        }
+    }
+
+    /**
+     * 按顺序写出排队的数据，写完的缓冲区归还
+     */
+    private void flush(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        ByteBuffer writeBuffer;
+        while ((writeBuffer = connection.pending.peek()) != null) {
+            channel.write(writeBuffer);
+            if (writeBuffer.hasRemaining()) { // 写半包，发送缓冲区已满
+                break;
+            }
+            connection.pending.poll();
+            bufferPool.release(writeBuffer);
+        }
+        updateInterestOps(key, connection);
+    }
+
+    /**
+     * 有数据没写完时关注 OP_WRITE，写完后取消，否则 selector 会一直返回可写；
+     * 排队的数据太多时不再关注 OP_READ，让 TCP 窗口把压力传回客户端
+     */
+    private static void updateInterestOps(SelectionKey key, Connection connection) {
+        int ops = connection.pending.size() < MAX_PENDING_WRITES ? SelectionKey.OP_READ : 0;
+        if (!connection.pending.isEmpty()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * 关闭连接，缓冲区归还到池中
+     */
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Connection connection = (Connection) key.attachment();
+        if (connection != null) {
+            key.attach(null);
+            bufferPool.release(connection.readBuffer);
+            ByteBuffer buffer;
+            while ((buffer = connection.pending.poll()) != null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * 每个连接的读缓冲区和待发送的数据
+     */
+    private static class Connection {
+
+        private final ByteBuffer readBuffer;
+
+        private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+
+        Connection(ByteBuffer readBuffer) {
+            this.readBuffer = readBuffer;
         }
     }
 }
@@ -0,0 +1,194 @@
+package cn.alone.demo.nio;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 对 Selector 的包装，做了 Netty NioEventLoop 中的两处处理：
+ * 1. 用 {@link SelectedSelectionKeySet} 替换 JDK 内部保存就绪 key 的 HashSet，每次 select 不再产生垃圾；
+ * 反射失败（例如 JDK 9 以上没有 --add-opens java.base/sun.nio.ch）时退回 JDK 的实现。
+ * 2. epoll 空轮询：select 没有就绪的 key、没有超时、也没有被 wakeup 就返回，连续发生多次时重建 Selector，
+ * 把所有 key 按原来的关注事件和附件注册到新的 Selector 上，避免线程一直空转占满 CPU。
+ * <p>
+ * 除了 {@link #wakeup()}，其他方法只能在 select 的线程调用。重建后 SelectionKey 会变化，不要长期持有，
+ * 需要时用 {@link SelectableChannel#keyFor(Selector)} 和 {@link #selector()} 获取
+ */
+public final class OptimizedSelector {
+
+    /**
+     * 连续多少次提前返回后重建，和 Netty 的默认值 io.netty.selectorAutoRebuildThreshold 一致
+     */
+    private static final int REBUILD_THRESHOLD = 512;
+
+    /**
+     * 处理就绪的 key，不能抛出受检异常，出错时自己关闭连接
+     */
+    public interface KeyHandler {
+
+        void handle(SelectionKey key);
+    }
+
+    private volatile Selector selector;
+
+    /**
+     * 为空表示替换失败，使用 JDK 的 HashSet
+     */
+    private SelectedSelectionKeySet selectedKeys;
+
+    private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+    private int prematureReturns;
+
+    private int rebuilds;
+
+    public OptimizedSelector() throws IOException {
+        open();
+    }
+
+    private void open() throws IOException {
+        Selector selector = Selector.open();
+        selectedKeys = replaceSelectedKeys(selector);
+        this.selector = selector;
+    }
+
+    private static SelectedSelectionKeySet replaceSelectedKeys(Selector selector) {
+        try {
+            Class<?> selectorImpl = Class.forName("sun.nio.ch.SelectorImpl", false,
+                    ClassLoader.getSystemClassLoader());
+            if (!selectorImpl.isInstance(selector)) {
+                return null;
+            }
+            Field selectedKeysField = selectorImpl.getDeclaredField("selectedKeys");
+            Field publicSelectedKeysField = selectorImpl.getDeclaredField("publicSelectedKeys");
+            selectedKeysField.setAccessible(true);
+            publicSelectedKeysField.setAccessible(true);
+            SelectedSelectionKeySet keys = new SelectedSelectionKeySet();
+            selectedKeysField.set(selector, keys);
+            publicSelectedKeysField.set(selector, keys);
+            return keys;
+        } catch (Exception e) { // JDK 9 以上模块不开放时抛出 InaccessibleObjectException（RuntimeException）
+            return null;
+        }
+    }
+
+    public Selector selector() {
+        return selector;
+    }
+
+    public SelectionKey register(SelectableChannel channel, int ops, Object attachment) throws IOException {
+        return channel.register(selector, ops, attachment);
+    }
+
+    /**
+     * 可以在任意线程调用，让正在进行的或者下一次 select 立即返回
+     */
+    public void wakeup() {
+        if (wakenUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 和 {@link Selector#select(long)} 相同，0 表示一直等待。
+     * 连续提前返回达到阈值时重建 Selector，本次返回 0
+     */
+    public int select(long timeoutMillis) throws IOException {
+        long start = System.nanoTime();
+        int selected = selector.select(timeoutMillis);
+        boolean wokenUp = wakenUp.getAndSet(false);
+        if (selected > 0 || wokenUp || Thread.currentThread().isInterrupted()
+                || timeoutMillis > 0 && System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+            prematureReturns = 0;
+            return selected;
+        }
+        if (++prematureReturns >= REBUILD_THRESHOLD) {
+            prematureReturns = 0;
+            rebuild();
+        }
+        return selected;
+    }
+
+    /**
+     * 依次处理就绪的 key 并清空就绪集合
+     */
+    public void processSelectedKeys(KeyHandler handler) {
+        SelectedSelectionKeySet keys = selectedKeys;
+        if (keys != null) {
+            int i = 0;
+            try {
+                for (; i < keys.size; i++) {
+                    SelectionKey key = keys.keys[i];
+                    keys.keys[i] = null; // 处理完不再引用，连接关闭后可以被回收
+                    handler.handle(key);
+                }
+            } finally {
+                keys.reset(i);
+            }
+            return;
+        }
+        Set<SelectionKey> selected = selector.selectedKeys();
+        Iterator<SelectionKey> it = selected.iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            handler.handle(key);
+        }
+    }
+
+    /**
+     * 新建 Selector，把有效的 key 连同关注的事件和附件迁移过去，然后关闭旧的 Selector。
+     * 迁移失败的 channel 直接关闭，重建次数通过 {@link #getRebuilds()} 获取，由调用方决定是否输出
+     */
+    public void rebuild() throws IOException {
+        Selector oldSelector = selector;
+        Selector newSelector = Selector.open();
+        SelectedSelectionKeySet newKeys = replaceSelectedKeys(newSelector);
+        for (SelectionKey key : oldSelector.keys()) {
+            try {
+                if (!key.isValid() || key.channel().keyFor(newSelector) != null) {
+                    continue;
+                }
+                int ops = key.interestOps();
+                Object attachment = key.attachment();
+                key.cancel();
+                key.channel().register(newSelector, ops, attachment);
+            } catch (CancelledKeyException | IOException e) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                    // 已经无法使用
+                }
+            }
+        }
+        selectedKeys = newKeys;
+        selector = newSelector;
+        rebuilds++;
+        try {
+            oldSelector.close();
+        } catch (IOException ignored) {
+            // key 已经全部迁移，旧的 Selector 不再使用
+        }
+        newSelector.wakeup(); // 重建期间的 wakeup 可能落在旧的 Selector 上
+    }
+
+    /**
+     * @return 因为空轮询重建的次数
+     */
+    public int getRebuilds() {
+        return rebuilds;
+    }
+
+    public void close() throws IOException {
+        selector.close();
+    }
+
+}
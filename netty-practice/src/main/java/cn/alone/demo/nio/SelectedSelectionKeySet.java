@@ -0,0 +1,82 @@
+package cn.alone.demo.nio;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 代替 JDK Selector 内部的 HashSet，select 时只是追加到数组，遍历时按下标访问，
+ * 不计算哈希，也不分配迭代器。做法和 Netty 的 NioEventLoop 一致，由 {@link OptimizedSelector} 通过反射替换。
+ * 同一个 key 在一次 select 中只会被加入一次，所以不需要去重
+ */
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+
+    SelectionKey[] keys = new SelectionKey[1024];
+
+    int size;
+
+    @Override
+    public boolean add(SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+        keys[size++] = key;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<SelectionKey> iterator() {
+        return new Iterator<SelectionKey>() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return keys[index++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * 从 start 开始清空，已经处理的 key 不再被数组引用
+     */
+    void reset(int start) {
+        Arrays.fill(keys, start, size, null);
+        size = 0;
+    }
+
+}
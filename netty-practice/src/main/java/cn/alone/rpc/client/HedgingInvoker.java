@@ -0,0 +1,134 @@
+package cn.alone.rpc.client;
+
+import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 按 {@link HedgingPolicy} 发送对冲请求。
+ * 主请求发出后等待对冲延迟，仍未返回且预算允许时向下一个节点发送副本，
+ * 第一个成功的响应作为结果，其余节点收到取消帧
+ */
+public class HedgingInvoker {
+
+    /**
+     * 预算最多累积的对冲次数，允许短时间的小突发
+     */
+    private static final double MAX_TOKENS = 10;
+
+    private final HedgingPolicy policy;
+
+    private final LatencyTracker latencyTracker = new LatencyTracker();
+
+    /**
+     * 每个请求增加 budgetPercent / 100 个令牌，每次对冲消耗一个
+     */
+    private double tokens;
+
+    public HedgingInvoker(HedgingPolicy policy) {
+        this.policy = policy;
+    }
+
+    public HedgingPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @param connections 可用的节点，至少两个才会对冲
+     * @param primary     主请求使用的节点下标
+     */
+    public RpcResponse invoke(final RpcRequest request, final List<RpcConnection> connections, final int primary,
+                              long timeoutMillis) throws Exception {
+        final String method = HedgingPolicy.methodKey(request);
+        final long start = System.nanoTime();
+        final CompletableFuture<RpcResponse> winner = new CompletableFuture<>();
+        final List<RpcConnection> attempts = new CopyOnWriteArrayList<>();
+        final AtomicInteger outstanding = new AtomicInteger();
+        final BiConsumer<RpcResponse, Throwable> onAttemptDone = new BiConsumer<RpcResponse, Throwable>() {
+            @Override
+            public void accept(RpcResponse response, Throwable cause) {
+                if (cause == null) {
+                    if (winner.complete(response)) {
+                        latencyTracker.record(method, System.nanoTime() - start);
+                    }
+                } else if (outstanding.decrementAndGet() == 0 && !(cause instanceof CancellationException)) {
+                    // 所有已发出的请求都失败了才算失败
+                    winner.completeExceptionally(cause);
+                }
+            }
+        };
+        addToken();
+        outstanding.incrementAndGet();
+        RpcConnection primaryConnection = connections.get(primary);
+        attempts.add(primaryConnection);
+        primaryConnection.send(request).whenComplete(onAttemptDone);
+
+        if (connections.size() > 1) {
+            RpcConnection.GROUP.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (winner.isDone() || !tryAcquireToken()) {
+                        return;
+                    }
+                    RpcConnection hedge = connections.get((primary + 1) % connections.size());
+                    outstanding.incrementAndGet();
+                    attempts.add(hedge);
+                    hedge.send(request).whenComplete(onAttemptDone);
+                    if (winner.isDone()) { // 发送期间主请求已经返回
+                        hedge.cancel(request.getRequestId());
+                    }
+                }
+            }, hedgeDelayNanos(method), TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            return winner.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            winner.cancel(false);
+            throw e;
+        } finally {
+            // 通知落后的一方放弃执行，已经返回的连接上 cancel 不会发送任何东西
+            for (RpcConnection attempt : attempts) {
+                attempt.cancel(request.getRequestId());
+            }
+        }
+    }
+
+    private long hedgeDelayNanos(String method) {
+        if (policy.isDynamicDelay()) {
+            long p95 = latencyTracker.p95(method);
+            if (p95 > 0) {
+                return p95;
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(policy.getDelayMillis());
+    }
+
+    /**
+     * 每个请求按预算比例累积令牌
+     */
+    private synchronized void addToken() {
+        tokens = Math.min(MAX_TOKENS, tokens + policy.getBudgetPercent() / 100);
+    }
+
+    /**
+     * 每次对冲消耗一个令牌，令牌不足时不对冲
+     */
+    private synchronized boolean tryAcquireToken() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+}
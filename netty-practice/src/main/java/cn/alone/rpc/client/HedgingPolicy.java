@@ -0,0 +1,75 @@
+package cn.alone.rpc.client;
+
+import cn.alone.rpc.model.RpcRequest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 对冲请求策略：只对显式登记的（只读、幂等）方法生效。
+ * 请求发出后经过一段延迟仍未返回，就向另一个节点再发一份，先返回的结果胜出
+ */
+public class HedgingPolicy {
+
+    /**
+     * 允许对冲的方法，格式为 类名#方法名
+     */
+    private final Set<String> methods = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 固定的对冲延迟；开启动态延迟时，在样本不足之前使用这个值
+     */
+    private long delayMillis = 50;
+
+    /**
+     * 是否使用方法最近的 p95 耗时作为对冲延迟
+     */
+    private boolean dynamicDelay;
+
+    /**
+     * 对冲请求最多占总请求数的百分比，防止对冲把负载放大
+     */
+    private double budgetPercent = 5;
+
+    public HedgingPolicy addMethod(Class<?> iface, String methodName) {
+        methods.add(methodKey(iface.getName(), methodName));
+        return this;
+    }
+
+    public boolean isHedged(RpcRequest request) {
+        return methods.contains(methodKey(request));
+    }
+
+    static String methodKey(RpcRequest request) {
+        return methodKey(request.getClassName(), request.getMethodName());
+    }
+
+    private static String methodKey(String className, String methodName) {
+        return className + '#' + methodName;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    public void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    public boolean isDynamicDelay() {
+        return dynamicDelay;
+    }
+
+    public void setDynamicDelay(boolean dynamicDelay) {
+        this.dynamicDelay = dynamicDelay;
+    }
+
+    public double getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    public void setBudgetPercent(double budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+}
@@ -0,0 +1,68 @@
+package cn.alone.rpc.client;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 按方法统计最近一段时间的调用耗时，用于计算对冲请求的动态延迟
+ */
+public class LatencyTracker {
+
+    /**
+     * 每个方法保留的样本数
+     */
+    private static final int WINDOW_SIZE = 1024;
+
+    /**
+     * 每新增多少个样本重新计算一次分位数，避免每次调用都排序
+     */
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    public void record(String method, long nanos) {
+        Window window = windows.get(method);
+        if (window == null) {
+            Window created = new Window();
+            window = windows.putIfAbsent(method, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        window.add(nanos);
+    }
+
+    /**
+     * @return 方法最近的 p95 耗时（纳秒），样本不足时返回 -1
+     */
+    public long p95(String method) {
+        Window window = windows.get(method);
+        return window == null ? -1 : window.p95;
+    }
+
+    private static final class Window {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int size;
+        private int next;
+        private int sinceRecompute;
+        private volatile long p95 = -1;
+
+        synchronized void add(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW_SIZE;
+            if (size < WINDOW_SIZE) {
+                size++;
+            }
+            if (++sinceRecompute >= RECOMPUTE_INTERVAL) {
+                sinceRecompute = 0;
+                long[] sorted = Arrays.copyOf(samples, size);
+                Arrays.sort(sorted);
+                p95 = sorted[(int) Math.ceil(size * 0.95) - 1];
+            }
+        }
+    }
+
+}
@@ -1,6 +1,14 @@
 package cn.alone.rpc.client;
 
+import cn.alone.rpc.config.RpcConfig;
 import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by RojerAlone on 2017-11-14
@@ -8,8 +16,81 @@ import cn.alone.rpc.model.RpcRequest;
  */
 public class RpcClientHandler {
 
-    public static Object handle(RpcRequest request) {
-        return new Object();
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    private static volatile List<RpcEndpoint> endpoints;
+
+    /**
+     * 为空表示不开启对冲请求
+     */
+    private static volatile HedgingInvoker hedgingInvoker;
+
+    /**
+     * 开启对冲请求，只对 policy 中登记的方法生效
+     */
+    public static void enableHedging(HedgingPolicy policy) {
+        hedgingInvoker = new HedgingInvoker(policy);
+    }
+
+    public static Object handle(RpcRequest request) throws Exception {
+        List<RpcConnection> conns = availableConnections();
+        if (conns.isEmpty()) {
+            throw new IllegalStateException("no available rpc server");
+        }
+        int primary = (NEXT.getAndIncrement() & Integer.MAX_VALUE) % conns.size(); // 轮询选择节点
+        long timeoutMillis = RpcConfig.getInstance().getRequestTimeoutMillis();
+        HedgingInvoker hedging = hedgingInvoker;
+        RpcResponse response;
+        if (hedging != null && conns.size() > 1 && hedging.getPolicy().isHedged(request)) {
+            response = hedging.invoke(request, conns, primary, timeoutMillis);
+        } else {
+            RpcConnection conn = conns.get(primary);
+            try {
+                response = conn.send(request).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | InterruptedException e) {
+                // 不再等待响应，通知服务端放弃执行并移除等待中的请求
+                conn.cancel(request.getRequestId());
+                throw e;
+            }
+        }
+        if (response.getError() != null) {
+            throw new RuntimeException("rpc invoke " + request.getMethodName() + " failed : " + response.getError());
+        }
+        return response.getResult();
+    }
+
+    /**
+     * 当前可以发送新请求的连接，跳过正在下线和断开的节点
+     */
+    private static List<RpcConnection> availableConnections() {
+        List<RpcConnection> conns = new ArrayList<>();
+        for (RpcEndpoint endpoint : endpoints()) {
+            RpcConnection conn = endpoint.connection();
+            if (conn != null) {
+                conns.add(conn);
+            }
+        }
+        return conns;
+    }
+
+    private static List<RpcEndpoint> endpoints() {
+        List<RpcEndpoint> eps = endpoints;
+        if (eps == null) {
+            synchronized (RpcClientHandler.class) {
+                eps = endpoints;
+                if (eps == null) {
+                    eps = new ArrayList<>();
+                    for (String address : RpcConfig.getInstance().getServerAddresses().split(",")) {
+                        String[] hostAndPort = address.trim().split(":");
+                        RpcEndpoint endpoint = new RpcEndpoint(hostAndPort[0], Integer.parseInt(hostAndPort[1]));
+                        endpoint.connect();
+                        eps.add(endpoint);
+                    }
+                    endpoints = eps;
+                }
+            }
+        }
+        return eps;
     }
 
 }
@@ -0,0 +1,193 @@
+package cn.alone.rpc.client;
+
+import cn.alone.rpc.codec.RpcCompression;
+import cn.alone.rpc.codec.RpcDecoder;
+import cn.alone.rpc.codec.RpcEncoder;
+import cn.alone.rpc.config.RpcConfig;
+import cn.alone.rpc.model.RpcCancel;
+import cn.alone.rpc.model.RpcGoAway;
+import cn.alone.rpc.model.RpcHandshake;
+import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 到一个服务端节点的连接，请求和响应通过请求 ID 对应
+ */
+public class RpcConnection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcConnection.class);
+
+    /**
+     * 所有连接共享的 I/O 线程，使用守护线程，不阻止 JVM 退出
+     */
+    static final EventLoopGroup GROUP = new NioEventLoopGroup(0, new DefaultThreadFactory("rpc-client", true));
+
+    private final String address;
+
+    private final Channel channel;
+
+    /**
+     * 已发送还没收到响应的请求，请求 ID -> 响应
+     */
+    private final Map<String, CompletableFuture<RpcResponse>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 收到服务端的 RpcGoAway 后置为 true，不再发送新请求
+     */
+    private volatile boolean draining;
+
+    private RpcConnection(String address, Channel channel) {
+        this.address = address;
+        this.channel = channel;
+    }
+
+    /**
+     * 连接到 host:port
+     */
+    public static RpcConnection connect(String host, int port) throws InterruptedException {
+        final RpcConfig config = RpcConfig.getInstance();
+        final ResponseHandler handler = new ResponseHandler();
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(GROUP).channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.ALLOCATOR, config.getByteBufAllocator())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getConnectTimeoutMillis())
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                        config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) throws Exception {
+                        ch.pipeline().addLast(new RpcDecoder(config.getMaxFrameLength()));
+                        ch.pipeline().addLast(new RpcEncoder(config.getCompressionThreshold()));
+                        ch.pipeline().addLast(handler);
+                    }
+                });
+        if (config.getSoRcvbuf() > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, config.getSoRcvbuf());
+        }
+        if (config.getSoSndbuf() > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, config.getSoSndbuf());
+        }
+        Channel channel = bootstrap.connect(host, port).sync().channel();
+        RpcConnection connection = new RpcConnection(host + ":" + port, channel);
+        handler.connection = connection;
+        if (config.isCompressionEnabled()) {
+            // 握手完成前发出的帧不压缩，解码方按 flags 判断，不需要等待握手
+            channel.writeAndFlush(new RpcHandshake(RpcCompression.SUPPORTED));
+        }
+        return connection;
+    }
+
+    /**
+     * 发送请求，返回的 future 在收到响应、连接断开或被 {@link #cancel(String)} 时完成
+     */
+    public CompletableFuture<RpcResponse> send(RpcRequest request) {
+        final String requestId = request.getRequestId();
+        final CompletableFuture<RpcResponse> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+        channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture f) throws Exception {
+                if (!f.isSuccess() && pending.remove(requestId) != null) {
+                    future.completeExceptionally(f.cause());
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 取消请求：如果还在等待响应，通知服务端放弃执行，并丢弃之后到达的响应
+     */
+    public void cancel(String requestId) {
+        CompletableFuture<RpcResponse> future = pending.remove(requestId);
+        if (future != null) {
+            channel.writeAndFlush(new RpcCancel(requestId));
+            future.cancel(false);
+        }
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * 是否可以发送新请求
+     */
+    public boolean isAvailable() {
+        return !draining && channel.isActive();
+    }
+
+    public boolean isClosed() {
+        return !channel.isOpen();
+    }
+
+    public void close() {
+        channel.close();
+    }
+
+    private static class ResponseHandler extends SimpleChannelInboundHandler<Object> {
+
+        private volatile RpcConnection connection;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof RpcResponse) {
+                RpcResponse response = (RpcResponse) msg;
+                CompletableFuture<RpcResponse> future = connection.pending.remove(response.getRequestId());
+                if (future != null) { // 为空说明已经被取消
+                    future.complete(response);
+                }
+            } else if (msg instanceof RpcGoAway) {
+                LOGGER.info("rpc server {} is going away", connection.address);
+                connection.draining = true;
+            } else if (msg instanceof RpcHandshake) {
+                byte codec = RpcCompression.negotiate(((RpcHandshake) msg).getCompressions());
+                ctx.pipeline().get(RpcEncoder.class).setCompression(codec);
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (connection != null) {
+                ClosedChannelException cause = new ClosedChannelException();
+                for (String requestId : connection.pending.keySet()) {
+                    CompletableFuture<RpcResponse> future = connection.pending.remove(requestId);
+                    if (future != null) {
+                        future.completeExceptionally(cause);
+                    }
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            LOGGER.error("rpc client channel {} error : ", ctx.channel(), cause);
+            ctx.close();
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package cn.alone.rpc.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 一个服务节点。节点下线或连接断开后，在后台按固定间隔重连，重连期间调用方会跳过这个节点
+ */
+public class RpcEndpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcEndpoint.class);
+
+    private static final long RECONNECT_INTERVAL_MILLIS = 1000;
+
+    private final String host;
+
+    private final int port;
+
+    private volatile RpcConnection connection;
+
+    private volatile long nextReconnectMillis;
+
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+
+    public RpcEndpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return 可以发送新请求的连接，没有时返回 null 并在后台尝试重连
+     */
+    public RpcConnection connection() {
+        RpcConnection conn = connection;
+        if (conn != null && conn.isAvailable()) {
+            return conn;
+        }
+        // 正在下线的连接等服务端关闭后再重连，避免连回即将退出的进程
+        if (conn == null || conn.isClosed()) {
+            reconnectAsync();
+        }
+        return null;
+    }
+
+    /**
+     * 同步建立第一次连接，失败时交给后台重连
+     */
+    void connect() {
+        try {
+            connection = RpcConnection.connect(host, port);
+        } catch (Exception e) {
+            LOGGER.warn("connect to rpc server {}:{} failed : {}", host, port, e.toString());
+            nextReconnectMillis = System.currentTimeMillis() + RECONNECT_INTERVAL_MILLIS;
+        }
+    }
+
+    private void reconnectAsync() {
+        if (System.currentTimeMillis() < nextReconnectMillis || !reconnecting.compareAndSet(false, true)) {
+            return;
+        }
+        // connect 会阻塞等待连接结果，不能放在 I/O 线程中执行
+        ForkJoinPool.commonPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect();
+                } finally {
+                    reconnecting.set(false);
+                }
+            }
+        });
+    }
+
+}
@@ -29,7 +29,7 @@ public class RpcProxyClient implements InvocationHandler {
     public Object invoke(Object o, Method method, Object[] objects) throws Throwable {
         RpcRequest request = new RpcRequest();
         request.setRequestId(UUID.randomUUID().toString());
-        request.setClassName(o.getClass().getName());
+        request.setClassName(method.getDeclaringClass().getName());
         request.setMethodName(method.getName());
         request.setParamsTypes(method.getParameterTypes());
         request.setParams(objects);
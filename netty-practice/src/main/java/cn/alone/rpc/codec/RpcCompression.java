@@ -0,0 +1,82 @@
+package cn.alone.rpc.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.compression.Snappy;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 帧 body 的压缩算法，算法编号写在帧头 flags 的低 4 位，连接建立时通过握手协商
+ */
+public final class RpcCompression {
+
+    /**
+     * flags 中表示压缩算法的位
+     */
+    public static final int CODEC_MASK = 0x0F;
+
+    public static final byte NONE = 0;
+
+    public static final byte SNAPPY = 1;
+
+    /**
+     * 本端支持的压缩算法，按优先级排列
+     */
+    public static final byte[] SUPPORTED = {SNAPPY};
+
+    /**
+     * Netty 的 Snappy 用 short 记录匹配位置，单块不能超过 32KB，大的 body 拆成多块压缩
+     */
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    private final Snappy snappy = new Snappy();
+
+    /**
+     * 从对端提供的算法中选出本端也支持的第一个
+     */
+    public static byte negotiate(byte[] offered) {
+        if (offered != null) {
+            for (byte codec : offered) {
+                if (isSupported(codec)) {
+                    return codec;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    public static boolean isSupported(byte codec) {
+        for (byte supported : SUPPORTED) {
+            if (supported == codec) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 压缩 src 的可读部分写入 out，格式为若干个 [块长度 4B][snappy 块]
+     */
+    void compress(ByteBuf src, ByteBuf out) {
+        while (src.isReadable()) {
+            int length = Math.min(BLOCK_SIZE, src.readableBytes());
+            int lengthIndex = out.writerIndex();
+            out.writeInt(0);
+            // Snappy 按绝对下标读取输入，必须传入从 0 开始的 slice
+            snappy.encode(src.readSlice(length), out, length);
+            snappy.reset();
+            out.setInt(lengthIndex, out.writerIndex() - lengthIndex - 4);
+        }
+    }
+
+    /**
+     * 解压 {@link #compress(ByteBuf, ByteBuf)} 的结果，out 的 maxCapacity 限制了解压后的大小
+     */
+    void decompress(ByteBuf src, ByteBuf out) {
+        while (src.isReadable()) {
+            int length = src.readInt();
+            snappy.decode(src.readSlice(length), out);
+            snappy.reset();
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package cn.alone.rpc.codec;
+
+import cn.alone.rpc.model.RpcCancel;
+import cn.alone.rpc.model.RpcGoAway;
+import cn.alone.rpc.model.RpcHandshake;
+import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * rpc 解码器，先按长度字段拆出完整的帧，按 flags 解压后再反序列化 body，帧格式见 {@link RpcProtocol}。
+ * 反序列化只接受白名单中的类，避免对端发送构造好的对象链在本地执行代码，
+ * 服务的参数或返回值用到其他类型时通过 {@link #allow(Class[])} 登记
+ */
+public class RpcDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * 允许反序列化的类名，数组按元素类型判断
+     */
+    private static final Set<String> ALLOWED_CLASSES = ConcurrentHashMap.newKeySet();
+
+    static {
+        allow(RpcRequest.class, RpcResponse.class, RpcCancel.class, RpcGoAway.class, RpcHandshake.class,
+                Object.class, Class.class, String.class, Number.class, Integer.class, Long.class, Short.class,
+                Byte.class, Float.class, Double.class, Boolean.class, Character.class,
+                BigInteger.class, BigDecimal.class, Date.class);
+        // 参数类型中的 int.class 等按基本类型的名字解析
+        ALLOWED_CLASSES.addAll(Arrays.asList("boolean", "byte", "char", "short", "int", "long", "float", "double",
+                "void"));
+    }
+
+    private final int maxFrameLength;
+
+    private final RpcCompression compression = new RpcCompression();
+
+    public RpcDecoder(int maxFrameLength) {
+        // 跳过长度字段，只把 type + flags + body 交给 decode
+        super(maxFrameLength, 0, RpcProtocol.LENGTH_FIELD_LENGTH, 0, RpcProtocol.LENGTH_FIELD_LENGTH);
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    /**
+     * 登记允许反序列化的类，父类需要单独登记
+     */
+    public static void allow(Class<?>... types) {
+        for (Class<?> type : types) {
+            ALLOWED_CLASSES.add(type.getName());
+        }
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame = (ByteBuf) super.decode(ctx, in);
+        if (frame == null) {
+            return null;
+        }
+        ByteBuf body = null;
+        try {
+            if (frame.readableBytes() < RpcProtocol.HEADER_LENGTH) {
+                throw new CorruptedFrameException("frame too short : " + frame.readableBytes());
+            }
+            byte type = frame.readByte();
+            byte codec = (byte) (frame.readByte() & RpcCompression.CODEC_MASK);
+            if (type < RpcProtocol.TYPE_REQUEST || type > RpcProtocol.TYPE_GOAWAY) {
+                throw new CorruptedFrameException("unknown frame type : " + type);
+            }
+            if (codec == RpcCompression.NONE) {
+                body = frame;
+            } else if (RpcCompression.isSupported(codec)) {
+                // 解压后的大小同样受 maxFrameLength 限制
+                body = ctx.alloc().directBuffer(Math.min(frame.readableBytes() * 2, maxFrameLength), maxFrameLength);
+                compression.decompress(frame, body);
+            } else {
+                throw new CorruptedFrameException("unsupported compression : " + codec);
+            }
+            ObjectInputStream ois = new AllowListObjectInputStream(new ByteBufInputStream(body));
+            try {
+                return ois.readObject();
+            } finally {
+                ois.close();
+            }
+        } finally {
+            if (body != null && body != frame) {
+                body.release();
+            }
+            frame.release();
+        }
+    }
+
+    private static class AllowListObjectInputStream extends ObjectInputStream {
+
+        AllowListObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            String name = desc.getName();
+            int dimensions = 0;
+            while (dimensions < name.length() && name.charAt(dimensions) == '[') {
+                dimensions++;
+            }
+            String element = name.substring(dimensions);
+            if (dimensions > 0) {
+                // 数组的元素：Lxxx; 为类，其余单个字符为基本类型
+                element = element.startsWith("L") && element.endsWith(";")
+                        ? element.substring(1, element.length() - 1) : null;
+            }
+            if (element != null && !ALLOWED_CLASSES.contains(element)) {
+                throw new InvalidClassException(name, "class not allowed in rpc message");
+            }
+            return super.resolveClass(desc);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package cn.alone.rpc.codec;
+
+import cn.alone.rpc.model.RpcCancel;
+import cn.alone.rpc.model.RpcGoAway;
+import cn.alone.rpc.model.RpcHandshake;
+import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.io.ObjectOutputStream;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * rpc 编码器，帧格式见 {@link RpcProtocol}。
+ * 握手协商出压缩算法后，body 不小于 compressThreshold 的帧会被压缩，压缩后没有变小则仍然发送原文
+ */
+public class RpcEncoder extends MessageToByteEncoder<Object> {
+
+    private final int compressThreshold;
+
+    private final RpcCompression compression = new RpcCompression();
+
+    /**
+     * 握手协商出的压缩算法
+     */
+    private volatile byte codec = RpcCompression.NONE;
+
+    public RpcEncoder(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    public void setCompression(byte codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof RpcRequest || msg instanceof RpcResponse
+                || msg instanceof RpcCancel || msg instanceof RpcHandshake || msg instanceof RpcGoAway;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        int lengthIndex = out.writerIndex();
+        out.writeInt(0); // 长度占位，写完 body 后回填
+        out.writeByte(typeOf(msg));
+        int flagsIndex = out.writerIndex();
+        out.writeByte(RpcCompression.NONE);
+        int bodyIndex = out.writerIndex();
+        ObjectOutputStream oos = new ObjectOutputStream(new ByteBufOutputStream(out));
+        try {
+            oos.writeObject(msg);
+            oos.flush();
+        } finally {
+            oos.close();
+        }
+        int bodyLength = out.writerIndex() - bodyIndex;
+        byte codec = this.codec;
+        if (codec != RpcCompression.NONE && bodyLength >= compressThreshold) {
+            // 小帧直接序列化进 out，只有需要压缩的大帧才多一次拷贝
+            ByteBuf compressed = ctx.alloc().directBuffer(bodyLength);
+            try {
+                compression.compress(out.slice(bodyIndex, bodyLength), compressed);
+                if (compressed.readableBytes() < bodyLength) {
+                    out.writerIndex(bodyIndex);
+                    out.writeBytes(compressed);
+                    out.setByte(flagsIndex, codec);
+                }
+            } finally {
+                compressed.release();
+            }
+        }
+        out.setInt(lengthIndex, out.writerIndex() - lengthIndex - RpcProtocol.LENGTH_FIELD_LENGTH);
+    }
+
+    private static byte typeOf(Object msg) {
+        if (msg instanceof RpcRequest) {
+            return RpcProtocol.TYPE_REQUEST;
+        }
+        if (msg instanceof RpcResponse) {
+            return RpcProtocol.TYPE_RESPONSE;
+        }
+        if (msg instanceof RpcCancel) {
+            return RpcProtocol.TYPE_CANCEL;
+        }
+        if (msg instanceof RpcHandshake) {
+            return RpcProtocol.TYPE_HANDSHAKE;
+        }
+        if (msg instanceof RpcGoAway) {
+            return RpcProtocol.TYPE_GOAWAY;
+        }
+        throw new EncoderException("unsupported message type : " + msg.getClass().getName());
+    }
+
+}
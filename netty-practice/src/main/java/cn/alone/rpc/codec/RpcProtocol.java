@@ -0,0 +1,55 @@
+package cn.alone.rpc.codec;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * rpc 帧格式：
+ * <pre>
+ * +--------+------+-------+----------------+
+ * | length | type | flags |      body      |
+ * |   4B   |  1B  |  1B   | length - 2 字节 |
+ * +--------+------+-------+----------------+
+ * </pre>
+ * length 不包含自身的 4 个字节，body 为 java 序列化后的消息；
+ * flags 的低 4 位为 body 的压缩算法，见 {@link RpcCompression}
+ */
+public final class RpcProtocol {
+
+    /**
+     * 长度字段占用的字节数
+     */
+    public static final int LENGTH_FIELD_LENGTH = 4;
+
+    /**
+     * type + flags 占用的字节数
+     */
+    public static final int HEADER_LENGTH = 2;
+
+    /**
+     * 请求帧，body 为 RpcRequest
+     */
+    public static final byte TYPE_REQUEST = 1;
+
+    /**
+     * 响应帧，body 为 RpcResponse
+     */
+    public static final byte TYPE_RESPONSE = 2;
+
+    /**
+     * 取消帧，body 为 RpcCancel
+     */
+    public static final byte TYPE_CANCEL = 3;
+
+    /**
+     * 握手帧，body 为 RpcHandshake
+     */
+    public static final byte TYPE_HANDSHAKE = 4;
+
+    /**
+     * 下线通知帧，body 为 RpcGoAway
+     */
+    public static final byte TYPE_GOAWAY = 5;
+
+    private RpcProtocol() {
+    }
+
+}
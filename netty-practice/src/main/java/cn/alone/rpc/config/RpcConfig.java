@@ -1,13 +1,301 @@
 package cn.alone.rpc.config;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Properties;
+
 /**
  * Created by RojerAlone on 2017-11-14
+ * rpc 配置，按以下顺序加载，后面的覆盖前面的：
+ * <ol>
+ * <li>默认值</li>
+ * <li>预设的调优方案 classpath:rpc/profile-{rpc.profile}.properties，如 low-latency、high-throughput</li>
+ * <li>classpath:rpc.properties，以及系统属性 rpc.config 指定的文件</li>
+ * <li>环境变量，RPC_WORKER_THREADS 对应 rpc.worker.threads</li>
+ * <li>以 rpc. 开头的系统属性</li>
+ * </ol>
+ * 线程数、缓冲区大小为 0 时使用 Netty 或操作系统的默认值
  */
 public class RpcConfig {
 
+    private static final String PREFIX = "rpc.";
+
+    private static final String ENV_PREFIX = "RPC_";
+
+    private static volatile RpcConfig instance;
+
     /**
      * rpc 服务监听的端口
      */
-    public static final int SERVER_PORT = 9981;
+    private final int serverPort;
+
+    /**
+     * 客户端连接的服务节点，多个节点用逗号分隔
+     */
+    private final String serverAddresses;
+
+    private final int bossThreads;
+
+    private final int workerThreads;
+
+    /**
+     * 业务线程池大小
+     */
+    private final int businessThreads;
+
+    private final int soBacklog;
+
+    private final int soRcvbuf;
+
+    private final int soSndbuf;
+
+    /**
+     * 发送缓冲区低水位，高于高水位时 channel 变为不可写
+     */
+    private final int writeBufferLowWaterMark;
+
+    private final int writeBufferHighWaterMark;
+
+    /**
+     * pooled 或 unpooled
+     */
+    private final String allocator;
+
+    /**
+     * 单帧最大长度
+     */
+    private final int maxFrameLength;
+
+    private final int connectTimeoutMillis;
+
+    /**
+     * 客户端等待响应的超时时间
+     */
+    private final long requestTimeoutMillis;
+
+    /**
+     * 是否在握手时协商帧压缩
+     */
+    private final boolean compressionEnabled;
+
+    /**
+     * body 达到这个大小（字节）才压缩，小帧压缩收益不抵开销
+     */
+    private final int compressionThreshold;
+
+    /**
+     * 服务关闭时等待进行中请求完成的最长时间
+     */
+    private final long shutdownTimeoutMillis;
+
+    /**
+     * 发送 RpcGoAway 后至少等待的时间，客户端在收到之前发出的请求可能还在路上，
+     * 这段时间内即使没有进行中的请求也不关闭连接，客户端全部断开时提前结束
+     */
+    private final long shutdownGraceMillis;
+
+    RpcConfig(Properties props) {
+        serverPort = getInt(props, "server.port", 9981);
+        serverAddresses = get(props, "server.addresses", "127.0.0.1:" + serverPort);
+        bossThreads = getInt(props, "boss.threads", 1);
+        workerThreads = getInt(props, "worker.threads", 0);
+        businessThreads = getInt(props, "business.threads", Runtime.getRuntime().availableProcessors() * 2);
+        soBacklog = getInt(props, "so.backlog", 1024);
+        soRcvbuf = getInt(props, "so.rcvbuf", 0);
+        soSndbuf = getInt(props, "so.sndbuf", 0);
+        writeBufferLowWaterMark = getInt(props, "write.buffer.low", 32 * 1024);
+        writeBufferHighWaterMark = getInt(props, "write.buffer.high", 64 * 1024);
+        allocator = get(props, "allocator", "pooled");
+        maxFrameLength = getInt(props, "max.frame.length", 1024 * 1024);
+        connectTimeoutMillis = getInt(props, "connect.timeout.millis", 3000);
+        requestTimeoutMillis = getLong(props, "request.timeout.millis", 3000);
+        compressionEnabled = Boolean.parseBoolean(get(props, "compression.enabled", "true"));
+        compressionThreshold = getInt(props, "compression.threshold", 16 * 1024);
+        shutdownTimeoutMillis = getLong(props, "shutdown.timeout.millis", 10000);
+        shutdownGraceMillis = getLong(props, "shutdown.grace.millis", 1000);
+        if (!"pooled".equals(allocator) && !"unpooled".equals(allocator)) {
+            throw new IllegalArgumentException("invalid rpc config " + PREFIX + "allocator = " + allocator);
+        }
+        if (writeBufferLowWaterMark > writeBufferHighWaterMark) {
+            throw new IllegalArgumentException("rpc write buffer low water mark " + writeBufferLowWaterMark
+                    + " is greater than high water mark " + writeBufferHighWaterMark);
+        }
+    }
+
+    public static RpcConfig getInstance() {
+        RpcConfig config = instance;
+        if (config == null) {
+            synchronized (RpcConfig.class) {
+                config = instance;
+                if (config == null) {
+                    config = new RpcConfig(load());
+                    instance = config;
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * 合并所有配置来源
+     */
+    static Properties load() {
+        Properties overrides = new Properties();
+        loadResource(overrides, "rpc.properties", false);
+        String file = System.getProperty(PREFIX + "config");
+        if (file != null) {
+            loadFile(overrides, file);
+        }
+        for (Map.Entry<String, String> env : System.getenv().entrySet()) {
+            if (env.getKey().startsWith(ENV_PREFIX)) {
+                overrides.setProperty(env.getKey().toLowerCase().replace('_', '.'), env.getValue());
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PREFIX)) {
+                overrides.setProperty(name, System.getProperty(name));
+            }
+        }
+
+        Properties props = new Properties();
+        String profile = overrides.getProperty(PREFIX + "profile");
+        if (profile != null) {
+            loadResource(props, "rpc/profile-" + profile + ".properties", true);
+        }
+        props.putAll(overrides);
+        return props;
+    }
+
+    private static void loadResource(Properties props, String name, boolean required) {
+        try (InputStream in = RpcConfig.class.getClassLoader().getResourceAsStream(name)) {
+            if (in != null) {
+                props.load(in);
+            } else if (required) {
+                throw new IllegalArgumentException("rpc config " + name + " not found in classpath");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("load rpc config " + name + " failed", e);
+        }
+    }
+
+    private static void loadFile(Properties props, String file) {
+        try (InputStream in = new FileInputStream(new File(file))) {
+            props.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("load rpc config " + file + " failed", e);
+        }
+    }
+
+    private static String get(Properties props, String key, String defaultValue) {
+        String value = props.getProperty(PREFIX + key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = get(props, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid rpc config " + PREFIX + key + " = " + value, e);
+        }
+    }
+
+    private static long getLong(Properties props, String key, long defaultValue) {
+        String value = get(props, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid rpc config " + PREFIX + key + " = " + value, e);
+        }
+    }
+
+    public ByteBufAllocator getByteBufAllocator() {
+        return "unpooled".equals(allocator) ? UnpooledByteBufAllocator.DEFAULT : PooledByteBufAllocator.DEFAULT;
+    }
+
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    public String getServerAddresses() {
+        return serverAddresses;
+    }
+
+    public int getBossThreads() {
+        return bossThreads;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public int getBusinessThreads() {
+        return businessThreads;
+    }
+
+    public int getSoBacklog() {
+        return soBacklog;
+    }
+
+    public int getSoRcvbuf() {
+        return soRcvbuf;
+    }
+
+    public int getSoSndbuf() {
+        return soSndbuf;
+    }
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public String getAllocator() {
+        return allocator;
+    }
+
+    public int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    public long getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public long getShutdownGraceMillis() {
+        return shutdownGraceMillis;
+    }
 
 }
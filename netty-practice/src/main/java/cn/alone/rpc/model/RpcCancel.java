@@ -0,0 +1,32 @@
+package cn.alone.rpc.model;
+
+import java.io.Serializable;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 取消请求，对冲请求中先返回的一方胜出后，发给落后的一方
+ */
+public class RpcCancel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 要取消的请求 ID
+     */
+    private String requestId;
+
+    public RpcCancel() {
+    }
+
+    public RpcCancel(String requestId) {
+        this.requestId = requestId;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+}
@@ -0,0 +1,13 @@
+package cn.alone.rpc.model;
+
+import java.io.Serializable;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 服务端准备下线时发给客户端，客户端不再在这个连接上发送新请求，已发出的请求仍会得到响应
+ */
+public class RpcGoAway implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+}
@@ -0,0 +1,32 @@
+package cn.alone.rpc.model;
+
+import java.io.Serializable;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 连接建立后的握手消息，用于协商压缩算法
+ */
+public class RpcHandshake implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 客户端发送时为支持的压缩算法（按优先级排列），服务端回复时只包含选中的一个
+     */
+    private byte[] compressions;
+
+    public RpcHandshake() {
+    }
+
+    public RpcHandshake(byte[] compressions) {
+        this.compressions = compressions;
+    }
+
+    public byte[] getCompressions() {
+        return compressions;
+    }
+
+    public void setCompressions(byte[] compressions) {
+        this.compressions = compressions;
+    }
+}
@@ -1,9 +1,13 @@
 package cn.alone.rpc.model;
 
+import java.io.Serializable;
+
 /**
  * Created by RojerAlone on 2017-11-13
  */
-public class RpcRequest {
+public class RpcRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * 请求 ID，唯一标识一个请求
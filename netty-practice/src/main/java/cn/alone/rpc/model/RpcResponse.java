@@ -1,9 +1,13 @@
 package cn.alone.rpc.model;
 
+import java.io.Serializable;
+
 /**
  * Created by RojerAlone on 2017-11-13
  */
-public class RpcResponse {
+public class RpcResponse implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     /**
      * 请求的 ID
@@ -24,11 +28,23 @@ public class RpcResponse {
         return requestId;
     }
 
+    public void setRequestId(String requestId) {
+        this.requestId = requestId;
+    }
+
     public String getError() {
         return error;
     }
 
+    public void setError(String error) {
+        this.error = error;
+    }
+
     public Object getResult() {
         return result;
     }
+
+    public void setResult(Object result) {
+        this.result = result;
+    }
 }
@@ -1,14 +1,31 @@
 package cn.alone.rpc.server;
 
+import cn.alone.rpc.codec.RpcDecoder;
+import cn.alone.rpc.codec.RpcEncoder;
 import cn.alone.rpc.config.RpcConfig;
+import cn.alone.rpc.model.RpcGoAway;
+import cn.alone.rpc.util.CommonHook;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by RojerAlone on 2017-11-14
@@ -16,16 +33,38 @@ import io.netty.channel.socket.nio.NioServerSocketChannel;
  */
 public class RpcServer {
 
-    private static EventLoopGroup bossGroup = new NioEventLoopGroup();
-    private static EventLoopGroup workerGroup = new NioEventLoopGroup();
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcServer.class);
+
+    private static final RpcConfig CONFIG = RpcConfig.getInstance();
+
+    private static EventLoopGroup bossGroup = new NioEventLoopGroup(CONFIG.getBossThreads());
+    private static EventLoopGroup workerGroup = new NioEventLoopGroup(CONFIG.getWorkerThreads());
+    /**
+     * 业务线程池，业务方法不在 I/O 线程中执行
+     */
+    private static ExecutorService businessExecutor = Executors.newFixedThreadPool(CONFIG.getBusinessThreads());
+
+    /**
+     * 所有已建立的连接，下线时通过它发送 RpcGoAway
+     */
+    private static final ChannelGroup CHANNELS = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    /**
+     * 所有连接上进行中的请求数
+     */
+    private static final AtomicInteger IN_FLIGHT = new AtomicInteger();
+
+    private static final AtomicBoolean STOPPED = new AtomicBoolean();
+
+    private static volatile Channel serverChannel;
 
     public static void init() {
-        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+        CommonHook.addShutdownHook("rpc-server-shutdown", new Runnable() {
             @Override
             public void run() {
                 RpcServer.stop();
             }
-        }));
+        });
     }
 
     public static void start() throws Exception {
@@ -35,27 +74,70 @@ public class RpcServer {
             bootstrap.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
                     // 客户端请求时候服务端只能接收一个连接请求， SO_BACKLOG 指定等待队列的大小
-                    .option(ChannelOption.SO_BACKLOG, 1024)
+                    .option(ChannelOption.SO_BACKLOG, CONFIG.getSoBacklog())
+                    .option(ChannelOption.ALLOCATOR, CONFIG.getByteBufAllocator())
+                    .childOption(ChannelOption.ALLOCATOR, CONFIG.getByteBufAllocator())
+                    .childOption(ChannelOption.TCP_NODELAY, true)
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(
+                            CONFIG.getWriteBufferLowWaterMark(), CONFIG.getWriteBufferHighWaterMark()))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
-
+                            CHANNELS.add(ch); // 连接关闭时自动从 group 中移除
+                            ch.pipeline().addLast(new RpcDecoder(CONFIG.getMaxFrameLength()));
+                            ch.pipeline().addLast(new RpcEncoder(CONFIG.getCompressionThreshold()));
+                            ch.pipeline().addLast(new RpcServerHandler(businessExecutor, IN_FLIGHT));
                         }
                     });
-            ChannelFuture future = bootstrap.bind(RpcConfig.SERVER_PORT).sync();
-            System.out.println("rpc server start on port " + RpcConfig.SERVER_PORT);
-            future.channel().closeFuture().sync();
+            // 为 0 时使用操作系统默认的缓冲区大小
+            if (CONFIG.getSoRcvbuf() > 0) {
+                bootstrap.childOption(ChannelOption.SO_RCVBUF, CONFIG.getSoRcvbuf());
+            }
+            if (CONFIG.getSoSndbuf() > 0) {
+                bootstrap.childOption(ChannelOption.SO_SNDBUF, CONFIG.getSoSndbuf());
+            }
+            ChannelFuture future = bootstrap.bind(CONFIG.getServerPort()).sync();
+            serverChannel = future.channel();
+            System.out.println("rpc server start on port " + CONFIG.getServerPort());
+            serverChannel.closeFuture().sync();
         } finally {
             stop();
         }
     }
 
     /**
-     * 关闭 Netty 服务
+     * 关闭 Netty 服务：停止接受新连接，通知客户端把新请求发往其他节点，
+     * 至少等待 shutdownGraceMillis 接收路上的请求，最多等待 shutdownTimeoutMillis 让进行中的请求完成，
+     * 客户端全部断开时提前结束，最后关闭连接和线程池
      */
     private static void stop() {
+        if (!STOPPED.compareAndSet(false, true)) {
+            return;
+        }
+        Channel channel = serverChannel;
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+        }
+        CHANNELS.writeAndFlush(new RpcGoAway());
+        long now = System.nanoTime();
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(CONFIG.getShutdownTimeoutMillis());
+        // 客户端处理 RpcGoAway 之前发出的请求可能在计数为 0 之后才到达，宽限期内不认为已经处理完
+        long graceEnd = now + TimeUnit.MILLISECONDS.toNanos(CONFIG.getShutdownGraceMillis());
+        try {
+            while (System.nanoTime() < deadline && !CHANNELS.isEmpty()
+                    && (IN_FLIGHT.get() > 0 || System.nanoTime() < graceEnd)) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (IN_FLIGHT.get() > 0) {
+            LOGGER.warn("rpc server shutdown timeout, {} requests still in flight", IN_FLIGHT.get());
+        }
+        CHANNELS.close().awaitUninterruptibly();
+        businessExecutor.shutdownNow();
         bossGroup.shutdownGracefully();
-        workerGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
     }
 
 }
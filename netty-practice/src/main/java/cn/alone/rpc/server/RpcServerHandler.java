@@ -0,0 +1,130 @@
+package cn.alone.rpc.server;
+
+import cn.alone.rpc.codec.RpcCompression;
+import cn.alone.rpc.codec.RpcEncoder;
+import cn.alone.rpc.config.RpcConfig;
+import cn.alone.rpc.model.RpcCancel;
+import cn.alone.rpc.model.RpcHandshake;
+import cn.alone.rpc.model.RpcRequest;
+import cn.alone.rpc.model.RpcResponse;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * rpc 服务端处理器，每个连接一个实例。
+ * 业务方法在业务线程池中执行，不阻塞 I/O 线程；收到 RpcCancel 时取消还在排队或执行中的请求，并丢弃它的响应。
+ * 请求从登记到返回或取消之前都计入 inFlightCounter，服务关闭时据此等待进行中的请求完成
+ */
+public class RpcServerHandler extends SimpleChannelInboundHandler<Object> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RpcServerHandler.class);
+
+    private final Executor businessExecutor;
+
+    /**
+     * 本连接上尚未返回的请求，请求 ID -> 任务
+     */
+    private final Map<String, FutureTask<?>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 所有连接共享的进行中请求计数
+     */
+    private final AtomicInteger inFlightCounter;
+
+    public RpcServerHandler(Executor businessExecutor, AtomicInteger inFlightCounter) {
+        this.businessExecutor = businessExecutor;
+        this.inFlightCounter = inFlightCounter;
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof RpcRequest) {
+            final RpcRequest request = (RpcRequest) msg;
+            FutureTask<Void> task = new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                    RpcResponse response = invoke(request);
+                    // 已经被取消的请求不再返回结果
+                    if (inFlight.remove(request.getRequestId()) != null) {
+                        // 响应写出后才算完成，避免服务关闭时响应还没发出连接就被关掉
+                        ctx.writeAndFlush(response).addListener(new ChannelFutureListener() {
+                            @Override
+                            public void operationComplete(ChannelFuture future) throws Exception {
+                                inFlightCounter.decrementAndGet();
+                            }
+                        });
+                    }
+                }
+            }, null);
+            // 先登记再提交，避免任务执行完时还没登记导致响应被丢弃
+            if (inFlight.put(request.getRequestId(), task) == null) {
+                inFlightCounter.incrementAndGet();
+            }
+            businessExecutor.execute(task);
+        } else if (msg instanceof RpcCancel) {
+            FutureTask<?> task = inFlight.remove(((RpcCancel) msg).getRequestId());
+            if (task != null) {
+                task.cancel(true);
+                inFlightCounter.decrementAndGet();
+            }
+        } else if (msg instanceof RpcHandshake) {
+            byte codec = RpcConfig.getInstance().isCompressionEnabled()
+                    ? RpcCompression.negotiate(((RpcHandshake) msg).getCompressions()) : RpcCompression.NONE;
+            // 回复在 I/O 线程中同步编码，之后的帧才按协商结果压缩
+            ctx.writeAndFlush(new RpcHandshake(new byte[]{codec}));
+            ctx.pipeline().get(RpcEncoder.class).setCompression(codec);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (String requestId : inFlight.keySet()) {
+            FutureTask<?> task = inFlight.remove(requestId);
+            if (task != null) {
+                task.cancel(true);
+                inFlightCounter.decrementAndGet();
+            }
+        }
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        LOGGER.error("rpc server channel {} error : ", ctx.channel(), cause);
+        ctx.close();
+    }
+
+    private static RpcResponse invoke(RpcRequest request) {
+        RpcResponse response = new RpcResponse();
+        response.setRequestId(request.getRequestId());
+        Object service = ServiceRegistry.get(request.getClassName());
+        if (service == null) {
+            response.setError("service not found : " + request.getClassName());
+            return response;
+        }
+        try {
+            Method method = service.getClass().getMethod(request.getMethodName(), request.getParamsTypes());
+            method.setAccessible(true); // 实现类可能不是 public 的
+            response.setResult(method.invoke(service, request.getParams()));
+        } catch (InvocationTargetException e) {
+            response.setError(e.getCause().toString());
+        } catch (Exception e) {
+            response.setError(e.toString());
+        }
+        return response;
+    }
+
+}
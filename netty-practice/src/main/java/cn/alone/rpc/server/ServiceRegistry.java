@@ -0,0 +1,24 @@
+package cn.alone.rpc.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by RojerAlone on 2026-10-19
+ * 服务注册表，接口名 -> 实现
+ */
+public class ServiceRegistry {
+
+    private static final Map<String, Object> SERVICES = new ConcurrentHashMap<>();
+
+    private ServiceRegistry() {}
+
+    public static <T> void register(Class<T> iface, T impl) {
+        SERVICES.put(iface.getName(), impl);
+    }
+
+    public static Object get(String className) {
+        return SERVICES.get(className);
+    }
+
+}
@@ -1,20 +1,18 @@
 package cn.alone.rpc.util;
 
-import cn.alone.rpc.server.RpcServer;
-
 /**
  * Created by RojerAlone on 2017-11-14
  * 服务退出之前的钩子
  */
 public class CommonHook {
 
-    static {
-        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
-            @Override
-            public void run() {
+    private CommonHook() {}
 
-            }
-        }));
+    /**
+     * 注册 JVM 退出前执行的任务，JVM 会等待任务执行完成后才退出
+     */
+    public static void addShutdownHook(String name, Runnable task) {
+        Runtime.getRuntime().addShutdownHook(new Thread(task, name));
     }
 
 }